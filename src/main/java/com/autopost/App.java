@@ -3,6 +3,8 @@ public class App {
   public static void main(String[] args) throws Exception {
     if (args.length>0 && args[0].equalsIgnoreCase("analyze")) {
       new XAnalyzer().run();
+    } else if (args.length>0 && args[0].equalsIgnoreCase("backlog")) {
+      new Runner().runBacklog();
     } else if (args.length>0 && args[0].equalsIgnoreCase("server")) {
       AutoPostApplication.main(args);
     } else {
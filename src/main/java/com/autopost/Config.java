@@ -1,5 +1,6 @@
 package com.autopost;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException; import java.nio.charset.StandardCharsets; import java.nio.file.*; import java.security.MessageDigest; import java.util.*;
 public record Config(
     String openaiKey,
     String openaiModel,
@@ -31,6 +32,18 @@ public record Config(
       propWithDefault("SERVICE_PUBLIC_ID",""), propWithDefault("SERVICE_SECRET_KEY",""));
   }
   static String env(String k,String d){ var v=System.getenv(k); return v==null||v.isBlank()?d:v; }
+  /** Short stable hash of the parts' string forms, used to name cache and state entries. */
+  static String hash(Object... parts){
+    try{ var md=MessageDigest.getInstance("SHA-256"); md.update(String.join("|",Arrays.stream(parts).map(String::valueOf).toList()).getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(md.digest(),0,16); }
+    catch(java.security.NoSuchAlgorithmException e){ throw new IllegalStateException(e); }
+  }
+  /** Replaces {@code file} with {@code bytes} through a temp file renamed over it, so readers never see a partial write. */
+  static void writeAtomically(Path file,byte[] bytes) throws IOException{
+    Path dir=file.toAbsolutePath().getParent(); Files.createDirectories(dir); Path tmp=Files.createTempFile(dir,file.getFileName().toString(),".tmp");
+    try{ Files.write(tmp,bytes); Files.move(tmp,file,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE); }
+    finally{ Files.deleteIfExists(tmp); }
+  }
   static String req(String k){ var v=System.getenv(k); if(v==null||v.isBlank()) throw new RuntimeException(k+" is required"); return v; }
   static String propWithDefault(String k,String d){ var v=System.getProperty(k); return v==null||v.isBlank()?d:v; }
   static String reqProp(String k){ var v=System.getProperty(k); if(v==null||v.isBlank()) throw new RuntimeException(k+" is required"); return v; }
@@ -0,0 +1,91 @@
+package com.autopost;
+import com.google.api.client.googleapis.batch.BatchRequest; import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError; import com.google.api.client.http.HttpHeaders;
+import com.google.api.services.drive.Drive; import com.google.api.services.drive.DriveRequest; import com.google.api.services.drive.model.File; import com.google.api.services.drive.model.Permission;
+import java.io.*; import java.util.*;
+/**
+ * Drive metadata calls for many files sent as HTTP batch requests of up to DRIVE_BATCH_SIZE (default 100) calls:
+ * moving N files takes two round trips (all parents, then all updates) and sharing N files one (permission and link
+ * side by side) instead of 2×N. Every file gets its own result; calls rejected for rate limits or server errors are
+ * retried in a later batch (up to 3 times, backing off), any other failure is reported for that file alone.
+ */
+public final class DriveBatch {
+  /** Outcome for one file: its value, or why it failed (a value can come with an error, e.g. a link without the share). */
+  public record Result<T>(T value,String error){ public boolean ok(){ return error==null; } }
+  interface Call<T>{ DriveRequest<T> request() throws IOException; }
+  /** One HTTP batch: Drive's BatchRequest here, a fake in tests. */
+  interface Batch{ <T> void queue(Call<T> call,JsonBatchCallback<T> cb) throws IOException; void execute() throws IOException; }
+  private static final int RETRIES=3;
+  private final Drive drive; private final int size; private final long backoffMs; private final java.util.function.Supplier<Batch> batches;
+  DriveBatch(Drive drive){ this(drive,Integer.parseInt(Config.env("DRIVE_BATCH_SIZE","100")),500,null); }
+  DriveBatch(Drive drive,int size,long backoffMs,java.util.function.Supplier<Batch> batches){
+    this.drive=drive; this.size=Math.max(1,Math.min(100,size)); this.backoffMs=backoffMs; this.batches=batches!=null? batches: this::http;
+  }
+
+  /** Moves each file into {@code newParentId}, out of all its current parents. */
+  public Map<String,Result<Void>> moveAll(Collection<String> fileIds,String newParentId) throws IOException{
+    var gets=new LinkedHashMap<String,Call<?>>(); for(String id: fileIds) gets.put(id,files(()->drive.files().get(id).setFields("id,parents")));
+    var parents=run(gets);
+    var out=new LinkedHashMap<String,Result<Void>>(); var updates=new LinkedHashMap<String,Call<?>>();
+    for(String id: fileIds){
+      var r=parents.get(id); if(!r.ok()){ out.put(id,new Result<>(null,r.error())); continue; }
+      var had=((File)r.value()).getParents(); String prev=String.join(",",had==null? List.of(): had);
+      updates.put(id,files(()->drive.files().update(id,null).setAddParents(newParentId).setRemoveParents(prev).setFields("id,parents")));
+    }
+    run(updates).forEach((id,r)->out.put(id,new Result<>(null,r.error())));
+    return out;
+  }
+
+  /** Makes each file readable by anyone with the link and returns the link. */
+  public Map<String,Result<String>> shareAll(Collection<String> fileIds) throws IOException{
+    var calls=new LinkedHashMap<String,Call<?>>();
+    for(String id: fileIds){
+      var p=new Permission(); p.setType("anyone"); p.setRole("reader");
+      Call<Permission> share=()->drive.permissions().create(id,p).setFields("id");
+      calls.put("permission:"+id,share);
+      calls.put("link:"+id,files(()->drive.files().get(id).setFields("id,webViewLink")));
+    }
+    var res=run(calls); var out=new LinkedHashMap<String,Result<String>>();
+    for(String id: fileIds){
+      var perm=res.get("permission:"+id); var link=res.get("link:"+id);
+      out.put(id,new Result<>(link.ok()? ((File)link.value()).getWebViewLink(): null, !link.ok()? link.error(): perm.ok()? null: "sharing failed: "+perm.error()));
+    }
+    return out;
+  }
+
+  private static Call<File> files(Call<File> c){ return c; }
+
+  Map<String,Result<Object>> run(Map<String,Call<?>> calls) throws IOException{
+    var results=new HashMap<String,Result<Object>>(); Map<String,Call<?>> pending=calls;
+    for(int round=0; !pending.isEmpty(); round++){
+      if(round>0) try{ Thread.sleep(backoffMs<<round); }catch(InterruptedException e){ Thread.currentThread().interrupt(); throw new InterruptedIOException("batch interrupted"); }
+      var retry=new LinkedHashMap<String,Call<?>>(); var keys=new ArrayList<>(pending.keySet()); boolean last=round>=RETRIES;
+      for(int i=0;i<keys.size();i+=size){
+        Batch b=batches.get();
+        for(String k: keys.subList(i,Math.min(keys.size(),i+size))) queue(b,k,pending.get(k),results,last? null: retry);
+        b.execute();
+      }
+      pending=retry;
+    }
+    return results;
+  }
+  private Batch http(){
+    BatchRequest b=drive.batch();
+    return new Batch(){
+      @Override public <T> void queue(Call<T> call,JsonBatchCallback<T> cb) throws IOException{ call.request().queue(b,cb); }
+      @Override public void execute() throws IOException{ b.execute(); }
+    };
+  }
+  private static <T> void queue(Batch b,String key,Call<T> call,Map<String,Result<Object>> results,Map<String,Call<?>> retry) throws IOException{
+    b.queue(call,new JsonBatchCallback<T>(){
+      @Override public void onSuccess(T value,HttpHeaders h){ results.put(key,new Result<>(value,null)); }
+      @Override public void onFailure(GoogleJsonError e,HttpHeaders h){
+        if(retry!=null && retryable(e)) retry.put(key,call); else results.put(key,new Result<>(null,e.getCode()+" "+e.getMessage()));
+      }
+    });
+  }
+  private static boolean retryable(GoogleJsonError e){
+    String m=String.valueOf(e.getMessage()).toLowerCase(Locale.ROOT);
+    return e.getCode()==429 || e.getCode()>=500 || (e.getCode()==403 && m.contains("rate limit"));
+  }
+}
@@ -0,0 +1,75 @@
+package com.autopost;
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport; import com.google.api.client.http.HttpTransport; import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.drive.Drive; import com.google.auth.http.HttpCredentialsAdapter; import com.google.auth.oauth2.AccessToken; import com.google.auth.oauth2.GoogleCredentials;
+import java.io.*; import java.nio.charset.StandardCharsets; import java.nio.file.*; import java.util.*; import java.util.concurrent.*;
+/**
+ * Drive clients shared by everything in the process (CLI runner and server alike): one trusted HTTP transport whose
+ * kept-alive connections are reused across clients (up to DRIVE_MAX_CONNECTIONS idle per host, default 16), and one
+ * {@link Account} per service-account key and scope set, so the key is parsed once and its access token minted once.
+ * Tokens are refreshed in the background DRIVE_TOKEN_REFRESH_MIN (default 5) minutes before they expire, so no request
+ * waits for a token mint.
+ */
+public final class DriveClients {
+  private static final Map<String,Account> ACCOUNTS=new ConcurrentHashMap<>();
+  private static final long MARGIN_MS=Long.parseLong(Config.env("DRIVE_TOKEN_REFRESH_MIN","5"))*60_000;
+  private static final ScheduledExecutorService REFRESHER=Executors.newSingleThreadScheduledExecutor(r->{ var t=new Thread(r,"drive-token"); t.setDaemon(true); return t; });
+  private static HttpTransport transport;
+  private DriveClients(){}
+
+  /** A service account's scoped credentials and the Drive client built on them. */
+  public static final class Account {
+    private final GoogleCredentials creds; private final Drive drive; private ScheduledFuture<?> next;
+    private Account(GoogleCredentials creds,HttpTransport transport){
+      this.creds=creds; this.drive=new Drive.Builder(transport,GsonFactory.getDefaultInstance(),new HttpCredentialsAdapter(creds)).setApplicationName("AutoPost").build();
+    }
+    public Drive drive(){ return drive; }
+    /** "Bearer ..." with a token that is valid for at least the refresh margin. */
+    public String authorization() throws IOException{
+      AccessToken t=creds.getAccessToken();
+      if(stale(t)) synchronized(this){ if(stale(t=creds.getAccessToken())){ refresh(); t=creds.getAccessToken(); } }
+      return "Bearer "+t.getTokenValue();
+    }
+    private static boolean stale(AccessToken t){ return t==null || t.getExpirationTime()==null || t.getExpirationTime().getTime()-System.currentTimeMillis()<MARGIN_MS; }
+    private synchronized void refresh() throws IOException{
+      creds.refresh();
+      AccessToken t=creds.getAccessToken(); if(t==null || t.getExpirationTime()==null) return;
+      schedule(Math.max(1000,t.getExpirationTime().getTime()-System.currentTimeMillis()-MARGIN_MS));
+    }
+    private synchronized void schedule(long delayMs){
+      if(next!=null) next.cancel(false);
+      next=REFRESHER.schedule(()->{
+        try{ refresh(); }
+        catch(IOException|RuntimeException e){ System.err.println("Drive token refresh failed, retrying in a minute: "+e.getMessage()); schedule(60_000); }
+      },delayMs,TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** The account for the configured service account (inline JSON or key file) with full Drive scope. */
+  public static Account account(Config cfg) throws IOException{
+    if(cfg.hasInlineSA()) return account(cfg.saInlineJson(),List.of("https://www.googleapis.com/auth/drive"));
+    if(cfg.hasSAPath()) return account(Paths.get(cfg.saPath()),List.of("https://www.googleapis.com/auth/drive"));
+    throw new RuntimeException("Service account credentials not provided");
+  }
+  public static Account account(Path keyFile,Collection<String> scopes) throws IOException{ return account(Files.readString(keyFile),scopes); }
+  /** The shared account for this key and scope set, created (key parsed, first token minted) on first use. */
+  public static Account account(String keyJson,Collection<String> scopes) throws IOException{
+    String key=Config.hash(keyJson,new TreeSet<>(scopes));
+    Account a=ACCOUNTS.get(key); if(a!=null) return a;
+    synchronized(ACCOUNTS){
+      a=ACCOUNTS.get(key); if(a!=null) return a;
+      a=new Account(GoogleCredentials.fromStream(new ByteArrayInputStream(keyJson.getBytes(StandardCharsets.UTF_8))).createScoped(scopes),transport());
+      try{ a.refresh(); }catch(IOException e){ System.err.println("Drive token not minted yet ("+e.getMessage()+"); trying again on first use"); }
+      ACCOUNTS.put(key,a); return a;
+    }
+  }
+
+  private static synchronized HttpTransport transport() throws IOException{
+    if(transport==null){
+      // HttpURLConnection keeps at most http.maxConnections (JDK default 5) idle connections per host; read once, on first use
+      if(System.getProperty("http.maxConnections")==null) System.setProperty("http.maxConnections",Config.env("DRIVE_MAX_CONNECTIONS","16"));
+      try{ transport=GoogleNetHttpTransport.newTrustedTransport(); }
+      catch(java.security.GeneralSecurityException e){ throw new IOException("Cannot set up the Drive transport",e); }
+    }
+    return transport;
+  }
+}
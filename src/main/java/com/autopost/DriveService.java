@@ -1,36 +1,62 @@
 package com.autopost;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.json.gson.GsonFactory;
-import com.google.api.services.drive.Drive; import com.google.api.services.drive.DriveScopes;
-import com.google.api.services.drive.model.File; import com.google.api.services.drive.model.FileList;
-import com.google.auth.http.HttpCredentialsAdapter; import com.google.auth.oauth2.*; import java.io.*; import java.nio.file.*; import java.util.*;
+import com.google.api.services.drive.Drive;
+import java.io.*; import java.nio.file.*; import java.util.*;
 public class DriveService {
-  private final Drive drive;
+  private static final String MEDIA_URL="https://www.googleapis.com/drive/v3/files/", UPLOAD_URL="https://www.googleapis.com/upload/drive/v3/files?uploadType=resumable&fields=id";
+  private final Drive drive; private final DriveClients.Account account; private final RangedDownloader ranged=new RangedDownloader(); private final ResumableUploader uploader=new ResumableUploader();
   public DriveService(Config cfg) throws Exception{
-    GoogleCredentials creds;
-    if (cfg.hasInlineSA()) creds = ServiceAccountCredentials.fromStream(new ByteArrayInputStream(cfg.saInlineJson().getBytes())).createScoped(Set.of(DriveScopes.DRIVE));
-    else if (cfg.hasSAPath()) creds = ServiceAccountCredentials.fromStream(new FileInputStream(cfg.saPath())).createScoped(Set.of(DriveScopes.DRIVE));
-    else throw new RuntimeException("Service account credentials not provided");
-    drive = new Drive.Builder(GoogleNetHttpTransport.newTrustedTransport(), GsonFactory.getDefaultInstance(), new HttpCredentialsAdapter(creds)).setApplicationName("AutoPost").build();
+    account = DriveClients.account(cfg);
+    drive = account.drive();
+  }
+  private final Map<String,RawIndex> indexes=new java.util.concurrent.ConcurrentHashMap<>();
+  /** The folder's local video index (kept in sync through the changes feed), created on first use. */
+  public RawIndex rawIndex(String folderId){ return indexes.computeIfAbsent(folderId,f->RawIndex.forDrive(drive,f)); }
+  private static Map<String,Object> videoMap(RawIndex.Entry e){
+    return new java.util.LinkedHashMap<>(){{ put("id",e.id()); put("name",e.name()); put("size",e.size()<0? null: e.size()); put("md5Checksum",e.md5()); }};
   }
   public Map<String,Object> listOldestVideo(String folderId) throws IOException{
-    var q="'"+folderId+"' in parents and mimeType contains 'video/' and trashed=false";
-    FileList list = drive.files().list().setQ(q).setFields("files(id,name,createdTime,parents,webViewLink)").setOrderBy("createdTime").setPageSize(10).execute();
-    var files=list.getFiles(); if(files==null||files.isEmpty()) return null; File f=files.get(0);
-    return new java.util.LinkedHashMap<>(){{ put("id",f.getId()); put("name",f.getName()); }};
+    var index=rawIndex(folderId); index.sync(); var e=index.oldest(); return e==null? null: videoMap(e);
+  }
+  /** Every video in the folder, oldest first, as of a sync of the folder's index. */
+  public Iterator<Map<String,Object>> iterateVideos(String folderId) throws IOException{
+    var index=rawIndex(folderId); index.sync(); return index.oldestFirst().stream().map(DriveService::videoMap).iterator();
   }
+  /** Batched metadata calls (moves, sharing) for many files at once. */
+  public DriveBatch batch(){ return new DriveBatch(drive); }
   public String ensureAnyoneView(String fileId) throws IOException{
-    try{ var p=new com.google.api.services.drive.model.Permission(); p.setType("anyone"); p.setRole("reader"); drive.permissions().create(fileId,p).execute(); }catch(IOException ignored){}
-    return drive.files().get(fileId).setFields("id,webViewLink").execute().getWebViewLink();
+    var r=batch().shareAll(java.util.List.of(fileId)).get(fileId); if(r.value()==null) throw new IOException("Link lookup failed: "+r.error());
+    return r.value();
+  }
+  /**
+   * Downloads a file with the size (-1 if unknown) and md5Checksum the caller already has from the folder listing.
+   * @return whether the download already checked the file against {@code md5} (ranged downloads do)
+   */
+  public boolean downloadFile(String fileId, long size, String md5, Path dest) throws IOException {
+    if(RangedDownloader.worthSplitting(size)){ ranged.download(mediaUri(fileId), this::authorization, size, md5, dest); return verifies(size, md5); }
+    try(OutputStream os=Files.newOutputStream(dest)){ drive.files().get(fileId).executeMediaAndDownloadTo(os);}
+    return false;
+  }
+  /**
+   * Starts the same download on its own thread so the file can be read while it arrives ({@link StreamingDownload#tail()}):
+   * a single stream, or for a large file parallel ranges whose contiguous prefix the tail follows.
+   */
+  public StreamingDownload startDownload(String fileId, long size, String md5, Path dest) throws IOException {
+    if(RangedDownloader.worthSplitting(size)) return StreamingDownload.fill(dest, prefix->ranged.download(mediaUri(fileId), this::authorization, size, md5, dest, prefix));
+    return StreamingDownload.start(()->openMedia(fileId), dest);
+  }
+  /** Whether a download of this size is checked against {@code md5} on the way in (ranged downloads are). */
+  public static boolean verifies(long size, String md5){ return RangedDownloader.worthSplitting(size) && md5!=null && !md5.isBlank(); }
+  private static java.net.URI mediaUri(String fileId){ return java.net.URI.create(MEDIA_URL+fileId+"?alt=media"); }
+  private String authorization(){
+    try{ return account.authorization(); }catch(IOException e){ throw new UncheckedIOException(e); }
   }
-  public void downloadFile(String fileId, Path dest) throws IOException { try(OutputStream os=Files.newOutputStream(dest)){ drive.files().get(fileId).executeMediaAndDownloadTo(os);} }
+  public InputStream openMedia(String fileId) throws IOException { return drive.files().get(fileId).executeMediaAsInputStream(); }
   public void moveTo(String fileId, String newParentId) throws IOException {
-    var f=drive.files().get(fileId).setFields("parents").execute(); var prev=String.join(",", f.getParents()==null? java.util.List.of(): f.getParents());
-    drive.files().update(fileId,null).setAddParents(newParentId).setRemoveParents(prev).setFields("id,parents").execute();
+    var r=batch().moveAll(java.util.List.of(fileId),newParentId).get(fileId); if(!r.ok()) throw new IOException("Move failed: "+r.error());
   }
+  /** Resumable upload: a dropped connection (or a restart) continues from the last byte Drive confirmed. */
   public String uploadFile(Path file, String folderId, String name) throws IOException{
-    var meta=new com.google.api.services.drive.model.File(); meta.setName(name); meta.setParents(java.util.List.of(folderId));
-    var media=new com.google.api.client.http.FileContent("video/mp4", file.toFile());
-    return drive.files().create(meta,media).setFields("id").execute().getId();
+    var meta=new com.fasterxml.jackson.databind.ObjectMapper().createObjectNode(); meta.put("name",name); meta.putArray("parents").add(folderId);
+    return uploader.upload(java.net.URI.create(UPLOAD_URL), this::authorization, file, "video/mp4", meta.toString()).path("id").asText();
   }
 }
@@ -0,0 +1,65 @@
+package com.autopost;
+import java.util.*; import java.util.concurrent.*; import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * Bounded worker pool for ffmpeg encode jobs. Cores are split across the jobs that can run at once so N parallel
+ * encoders don't oversubscribe the box: ENCODE_MAX_JOBS caps concurrency (default cores/2), ENCODE_THREADS_PER_JOB
+ * pins the per-job -threads value (default: cores divided by the jobs actually running). Every encode of a job goes
+ * through the pool, so the cap holds across callers too.
+ */
+public class EncodeScheduler implements AutoCloseable {
+  private final int cores, maxJobs, threadsPerJob; private final ExecutorService pool;
+  public EncodeScheduler(){ this(Runtime.getRuntime().availableProcessors()); }
+  /** Encodes get {@code cores} cores; the rest of the machine is left to work running beside them. */
+  public EncodeScheduler(int cores){ this(cores, Integer.parseInt(Config.env("ENCODE_MAX_JOBS","0")), Integer.parseInt(Config.env("ENCODE_THREADS_PER_JOB","0"))); }
+  EncodeScheduler(int cores,int maxJobs,int threadsPerJob){
+    this.cores=Math.max(1,cores); this.maxJobs=maxJobs>0? maxJobs: Math.max(1,this.cores/2); this.threadsPerJob=Math.max(0,threadsPerJob);
+    var n=new AtomicInteger(); pool=Executors.newFixedThreadPool(this.maxJobs, r->{ var t=new Thread(r,"encode-"+n.incrementAndGet()); t.setDaemon(true); return t; });
+  }
+
+  public int maxJobs(){ return maxJobs; }
+  /** Threads each job should use when {@code jobs} jobs are submitted together. */
+  public int threadsFor(int jobs){ if(threadsPerJob>0) return threadsPerJob; return Math.max(1, cores/Math.max(1,Math.min(jobs,maxJobs))); }
+
+  /** One job on the pool, e.g. a single-pass encode, so it counts against the cap like split jobs do. */
+  public <T> T run(Callable<T> job) throws Exception{ return runAll(List.of(job),null).get(0); }
+  public <T> List<T> runAll(List<? extends Callable<T>> jobs) throws Exception{ return runAll(jobs,null); }
+  /**
+   * Runs all jobs on the pool (highest cost first, so the long teaser isn't queued last); results keep input order.
+   * If one fails the rest are interrupted (which kills their ffmpeg) and, for up to ABORT_WAIT_MS, waited for, so the
+   * caller can clean up their files once this throws.
+   */
+  public <T> List<T> runAll(List<? extends Callable<T>> jobs,double[] cost) throws Exception{
+    var order=new ArrayList<Integer>(); for(int i=0;i<jobs.size();i++) order.add(i);
+    if(cost!=null) order.sort((a,b)->Double.compare(cost[b],cost[a]));
+    var batch=new Batch(); var done=new ExecutorCompletionService<T>(pool); var futures=new ArrayList<Future<T>>(Collections.nCopies(jobs.size(),(Future<T>)null));
+    for(int i: order) futures.set(i, done.submit(batch.wrap(jobs.get(i))));
+    var out=new ArrayList<T>(jobs.size());
+    try{
+      for(int i=0;i<jobs.size();i++) done.take().get(); // in completion order, so the first failure is seen at once
+      for(var f: futures) out.add(f.get());
+    }
+    catch(ExecutionException e){ batch.abort(futures,ABORT_WAIT_MS); throw e.getCause() instanceof Exception ex? ex: e; }
+    catch(InterruptedException e){ batch.abort(futures,0); throw e; }
+    return out;
+  }
+  static final long ABORT_WAIT_MS=30_000;
+
+  // Jobs of one runAll call that have started and not yet returned
+  private static final class Batch {
+    private int running; private boolean aborted;
+    <T> Callable<T> wrap(Callable<T> job){
+      return ()->{
+        synchronized(this){ if(aborted) throw new CancellationException(); running++; }
+        try{ return job.call(); }
+        finally{ synchronized(this){ running--; notifyAll(); } }
+      };
+    }
+    void abort(List<? extends Future<?>> futures,long waitMs) throws InterruptedException{
+      synchronized(this){ aborted=true; }
+      futures.forEach(f->f.cancel(true));
+      long end=System.currentTimeMillis()+waitMs;
+      synchronized(this){ for(long left; running>0 && (left=end-System.currentTimeMillis())>0;) wait(left); }
+    }
+  }
+  @Override public void close(){ pool.shutdownNow(); }
+}
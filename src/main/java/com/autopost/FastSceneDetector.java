@@ -0,0 +1,44 @@
+package com.autopost;
+import java.io.*; import java.nio.file.Path; import java.util.*; import java.util.function.Consumer;
+/**
+ * Scene detection on tiny frames: ffmpeg decodes the source at SCENE_FAST_FPS (default 10) and 64x36 grayscale into a
+ * rawvideo pipe, and the frame differences are scored in Java (a plain SAD loop, which C2 auto-vectorizes).
+ * The score mirrors lavfi's select scene metric (min of the mean absolute frame difference and its change since the
+ * previous frame, scaled to 0..1), so the same SCENE_THRESHOLD applies. Cut times are quantized to 1/fps.
+ */
+public class FastSceneDetector {
+  static final int W=64, H=36;
+  private final String ffmpeg; private final double threshold, fps; private final int limit;
+  FastSceneDetector(String ffmpeg,double threshold,double fps,int limit){ this.ffmpeg=ffmpeg; this.threshold=threshold; this.fps=fps; this.limit=limit; }
+
+  public List<Double> detect(Path in) throws Exception{ return detect(List.of("-i",in.toString()),null,0,p->{}); }
+  /** Same over a stream (e.g. a growing download); null when ffmpeg can't demux it from a pipe. */
+  public List<Double> detect(InputStream src) throws Exception{ return detect(List.of("-i","pipe:0"),src,0,p->{}); }
+
+  /**
+   * @param input ffmpeg input args (may carry -ss/-t); {@code offset} is added to every cut time
+   * @return the cuts, or null if a {@code feed} could not be decoded; a file input that fails throws instead
+   */
+  List<Double> detect(List<String> input,InputStream feed,double offset,Consumer<Process> started) throws Exception{
+    var cmd=new ArrayList<>(List.of(ffmpeg,"-v","error")); if(feed==null) cmd.add("-nostdin"); cmd.addAll(input);
+    cmd.addAll(List.of("-an","-sn","-vf","fps="+fps+",scale="+W+":"+H+":flags=area,format=gray","-f","rawvideo","pipe:1"));
+    var p=new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.DISCARD).start(); started.accept(p);
+    var watch=FfmpegRun.watch(p,"ffmpeg frames"); if(feed!=null) FfmpegRun.feed(p,feed,watch);
+    var cuts=new ArrayList<Double>(); byte[] prev=new byte[W*H], cur=new byte[W*H]; double prevMafd=0; long frame=0;
+    try(var in=new BufferedInputStream(watch,W*H*8)){
+      while(in.readNBytes(cur,0,cur.length)==cur.length){
+        if(frame>0){
+          double mafd=sad(prev,cur)*100.0/cur.length/256.0, score=Math.min(1,Math.min(mafd,Math.abs(mafd-prevMafd))/100.0); prevMafd=mafd;
+          if(score>threshold){ cuts.add(offset+frame/fps); if(limit>0 && cuts.size()>=limit){ p.destroyForcibly(); break; } }
+        }
+        var t=prev; prev=cur; cur=t; frame++;
+      }
+    }
+    int code=p.waitFor(); if(code==0 || (limit>0 && cuts.size()>=limit)) return cuts;
+    if(feed!=null) return null;
+    throw new IOException("ffmpeg scene detection exited "+code+" after "+cuts.size()+" cuts");
+  }
+
+  // int accumulator so the loop vectorizes; a 64x36 frame can't overflow it
+  static long sad(byte[] a,byte[] b){ int s=0; for(int i=0;i<a.length;i++) s+=Math.abs((a[i]&0xFF)-(b[i]&0xFF)); return s; }
+}
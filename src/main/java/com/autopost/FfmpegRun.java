@@ -0,0 +1,153 @@
+package com.autopost;
+import java.io.*; import java.util.*; import java.util.concurrent.*; import java.util.concurrent.atomic.AtomicLong; import java.util.function.Consumer;
+/**
+ * Supervised ffmpeg/ffprobe processes. ffmpeg runs with {@code -progress pipe:1}; the key=value blocks are parsed live
+ * into {@link Progress} (frame, fps, speed, percent, ETA) and a {@link Result} is returned per run. A watchdog kills a
+ * process that makes no progress (ffprobe: writes no output, or for probes that only write now and then, burns no CPU
+ * and is fed no input) for FFMPEG_STALL_SEC (default 120) or outlives its
+ * deadline (FFMPEG_DEADLINE_SEC, default 0 = none, or one given per call). A process whose calling thread is
+ * interrupted (e.g. a cancelled encode job) or fails is destroyed, never left running behind its caller.
+ */
+public final class FfmpegRun {
+  static final long STALL_MS=Long.parseLong(Config.env("FFMPEG_STALL_SEC","120"))*1000, DEADLINE_MS=Long.parseLong(Config.env("FFMPEG_DEADLINE_SEC","0"))*1000;
+  private static final ScheduledExecutorService WATCHDOG=Executors.newSingleThreadScheduledExecutor(r->{ var t=new Thread(r,"ffmpeg-watchdog"); t.setDaemon(true); return t; });
+  private FfmpegRun(){}
+
+  /** @param percent 0..100, or -1 when the expected output length is unknown; @param etaSec -1 when unknown */
+  public record Progress(String label,long frame,double fps,double outSec,double speed,double percent,double etaSec){}
+  /** @param killed null, or why the watchdog killed the process; @param errorTail last stderr lines */
+  public record Result(String label,int exit,double wallSec,long frames,double fps,double outSec,double speed,String killed,String errorTail){
+    public boolean ok(){ return exit==0 && killed==null; }
+  }
+  /** Live progress of running jobs and results of finished ones, shared by the processors of one run. */
+  public static final class Tracker {
+    private final Map<String,Progress> live=new ConcurrentHashMap<>(); private final List<Result> done=Collections.synchronizedList(new ArrayList<>());
+    public Map<String,Progress> live(){ return Map.copyOf(live); }
+    public List<Result> finished(){ synchronized(done){ return List.copyOf(done); } }
+  }
+
+  /**
+   * Runs an ffmpeg command ({@code cmd.get(0)} is the binary) with progress reporting.
+   * @param expectedSec output length used for percent/ETA (0 if unknown)
+   * @param deadlineMs wall-clock limit (0: FFMPEG_DEADLINE_SEC)
+   * @param listener called for every progress block; may be null
+   */
+  public static Result ffmpeg(String label,List<String> cmd,double expectedSec,long deadlineMs,Tracker tracker,Consumer<Progress> listener) throws IOException, InterruptedException{
+    var full=new ArrayList<String>(cmd.size()+3); full.add(cmd.get(0)); full.addAll(List.of("-progress","pipe:1","-nostats")); full.addAll(cmd.subList(1,cmd.size()));
+    long t0=System.nanoTime(); var p=new ProcessBuilder(full).start(); var err=drain(p.getErrorStream(),label);
+    var guard=new Guard(p,label,deadlineMs>0? deadlineMs: DEADLINE_MS);
+    long frame=0; double fps=0, out=0, speed=0; boolean finished=false;
+    try(var br=new BufferedReader(new InputStreamReader(p.getInputStream()))){
+      for(String line; (line=br.readLine())!=null;){
+        int eq=line.indexOf('='); if(eq<0) continue; String k=line.substring(0,eq), v=line.substring(eq+1).trim();
+        switch(k){
+          case "frame" -> { long f=num(v,frame); if(f>frame) guard.touch(); frame=f; }
+          case "fps" -> fps=num(v,fps);
+          case "out_time_us" -> { double o=num(v,out*1e6)/1e6; if(o>out) guard.touch(); out=Math.max(out,o); }
+          case "speed" -> speed=num(v.endsWith("x")? v.substring(0,v.length()-1): v,speed);
+          case "progress" -> { var pr=new Progress(label,frame,fps,out,speed, expectedSec>0? Math.min(100,out*100/expectedSec): -1, expectedSec>0 && speed>0? Math.max(0,expectedSec-out)/speed: -1);
+            if(tracker!=null) tracker.live.put(label,pr); if(listener!=null) listener.accept(pr); }
+          default -> {}
+        }
+      }
+      if(guard.interrupted) throw new InterruptedException(label+" interrupted");
+      int exit=p.waitFor(); err.join(1000); finished=true;
+      var r=new Result(label,exit,(System.nanoTime()-t0)/1e9,frame,fps,out,speed,guard.killed,err.tail());
+      if(tracker!=null) tracker.done.add(r); return r;
+    }finally{
+      guard.cancel(); if(tracker!=null) tracker.live.remove(label);
+      if(!finished) p.destroyForcibly();
+    }
+  }
+
+  /** Runs an ffprobe-style command and returns its stdout; fails on a non-zero exit, a stall or the deadline. */
+  public static String capture(List<String> cmd) throws IOException, InterruptedException{
+    var p=new ProcessBuilder(cmd).start(); String label=new File(cmd.get(0)).getName(); var err=drain(p.getErrorStream(),label);
+    var out=new ByteArrayOutputStream(); int exit;
+    try{
+      try(var in=watch(p,label)){ in.transferTo(out); }
+      if(Thread.currentThread().isInterrupted()) throw new InterruptedException(label+" interrupted");
+      exit=p.waitFor(); err.join(1000);
+    }finally{ if(p.isAlive()) p.destroyForcibly(); }
+    if(exit!=0) throw new IOException(label+" exited "+exit+" for "+cmd.get(cmd.size()-1)+": "+err.tail());
+    return out.toString();
+  }
+
+  /**
+   * The process's stdout for callers that parse it themselves; every read counts as progress. Closing the stream
+   * stops supervising the process (it doesn't wait for or kill it); the watchdog kills it if the reading thread is
+   * interrupted meanwhile.
+   */
+  public static Watch watch(Process p,String label){ return watch(p,label,false); }
+  /** @param sparse the process writes only now and then (e.g. one line per scene cut), so CPU time it burns counts as progress too */
+  public static Watch watch(Process p,String label,boolean sparse){ return watch(p,label,sparse,STALL_MS); }
+  static Watch watch(Process p,String label,boolean sparse,long stallMs){ return new Watch(p,new Guard(p,label,DEADLINE_MS,stallMs,sparse)); }
+
+  /** A supervised process's stdout (see {@link #watch}). */
+  public static final class Watch extends FilterInputStream {
+    private final Guard guard;
+    private Watch(Process p,Guard guard){ super(p.getInputStream()); this.guard=guard; }
+    @Override public int read() throws IOException{ int b=super.read(); guard.touch(); return b; }
+    @Override public int read(byte[] b,int off,int len) throws IOException{ int n=super.read(b,off,len); guard.touch(); return n; }
+    @Override public void close() throws IOException{ guard.cancel(); super.close(); }
+    /** Marks progress made elsewhere, e.g. input fed to the process. */
+    public void touch(){ guard.touch(); }
+    /** Why the watchdog killed the process, or null; such a run's output is incomplete. */
+    public String killed(){ return guard.killed; }
+  }
+
+  /** Copies {@code src} into the process's stdin on a daemon thread; every chunk fed counts as progress of {@code watch}. */
+  public static Thread feed(Process p,InputStream src,Watch watch){
+    var t=new Thread(()->{
+      try(var os=p.getOutputStream(); src){ byte[] b=new byte[1<<16]; for(int n; (n=src.read(b))>=0;){ os.write(b,0,n); watch.touch(); } }
+      catch(IOException ignore){ /* process gone, or the source failed: the reader sees the stream end */ }
+    },watch.guard.label+"-feed");
+    t.setDaemon(true); t.start(); return t;
+  }
+
+  private static final class Guard {
+    private final Process p; private final String label; private final long start=System.currentTimeMillis(), deadlineMs, stallMs; private final boolean sparse;
+    private final AtomicLong seen=new AtomicLong(start); private final ScheduledFuture<?> task; private final Thread owner=Thread.currentThread();
+    private long cpuMs=-1; volatile String killed; volatile boolean interrupted;
+    Guard(Process p,String label,long deadlineMs){ this(p,label,deadlineMs,STALL_MS,false); }
+    Guard(Process p,String label,long deadlineMs,long stallMs,boolean sparse){
+      // a blocked read on the process's pipe ignores interrupts, so the watchdog checks for them too
+      this.p=p; this.label=label; this.deadlineMs=deadlineMs; this.stallMs=stallMs; this.sparse=sparse; long every=Math.max(100,Math.min(1000,stallMs/4));
+      task=WATCHDOG.scheduleWithFixedDelay(this::check,every,every,TimeUnit.MILLISECONDS);
+    }
+    void touch(){ seen.set(System.currentTimeMillis()); }
+    void cancel(){ task.cancel(false); }
+    private void check(){
+      long now=System.currentTimeMillis(); String why=null;
+      if(owner.isInterrupted()){ interrupted=true; why="caller interrupted"; }
+      else if(deadlineMs>0 && now-start>deadlineMs) why="deadline of "+secs(deadlineMs)+" passed";
+      else if(stallMs>0 && busy()<0) return; // sparse output and no CPU figures: only the deadline applies
+      else if(stallMs>0 && now-seen.get()>stallMs) why="no progress for "+secs(stallMs);
+      if(why==null || !p.isAlive()) return;
+      killed=why; System.err.println("Killing "+label+": "+why); p.destroyForcibly(); cancel();
+    }
+    // For a sparse process: its CPU time so far, a rise counting as progress (-1 when the OS doesn't report it); else 0
+    private long busy(){
+      if(!sparse) return 0;
+      long cpu=p.info().totalCpuDuration().map(java.time.Duration::toMillis).orElse(-1L);
+      if(cpu>cpuMs && cpuMs>=0) touch();
+      cpuMs=Math.max(cpuMs,cpu); return cpu;
+    }
+  }
+
+  private static String secs(long ms){ return String.format(Locale.ROOT,"%.1fs",ms/1000.0); }
+  private static double num(String v,double d){ try{ return Double.parseDouble(v); }catch(NumberFormatException e){ return d; } }
+  private static long num(String v,long d){ try{ return Long.parseLong(v); }catch(NumberFormatException e){ return d; } }
+
+  /** Keeps the last stderr lines for error messages without letting the pipe fill up. */
+  private static final class Tail extends Thread {
+    private final InputStream in; private final ArrayDeque<String> lines=new ArrayDeque<>();
+    Tail(InputStream in,String label){ super(label+"-stderr"); this.in=in; setDaemon(true); }
+    @Override public void run(){
+      try(var br=new BufferedReader(new InputStreamReader(in))){ for(String l; (l=br.readLine())!=null;) synchronized(lines){ lines.addLast(l); if(lines.size()>15) lines.removeFirst(); } }
+      catch(IOException ignore){}
+    }
+    String tail(){ synchronized(lines){ return String.join("\n",lines); } }
+  }
+  private static Tail drain(InputStream in,String label){ var t=new Tail(in,label); t.start(); return t; }
+}
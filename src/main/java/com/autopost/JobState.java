@@ -0,0 +1,83 @@
+package com.autopost;
+import com.fasterxml.jackson.databind.JsonNode; import com.fasterxml.jackson.databind.ObjectMapper; import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.*; import java.nio.file.*; import java.time.*; import java.util.*;
+/**
+ * Durable progress record of one source under state/jobs, so a failed run resumes at the first unfinished stage
+ * instead of starting over. Each completed stage stores its artifacts (path, size, mtime) and small data such as
+ * scene cuts or the caption; an artifact is only reused while the file still matches (same size and mtime; records
+ * written with an MD5 also accept a touched file with the same content). A record for a different checksum of the
+ * same source starts fresh. Records that reached a terminal stage (POSTED or later: a server post ends at POSTED, a
+ * CLI job at ARCHIVED) and were not updated for JOB_STATE_RETENTION_DAYS (default 30) are pruned.
+ */
+public class JobState {
+  public enum Stage{ DOWNLOADED, ANALYZED, ENCODED, CAPTIONED, POSTED, UPLOADED, ARCHIVED }
+  private static final ObjectMapper M=new ObjectMapper();
+  private static final long PRUNE_EVERY_MS=10*60_000; private static volatile long lastPrune;
+  private final Path file; private final ObjectNode root;
+  private JobState(Path file,ObjectNode root){ this.file=file; this.root=root; }
+
+  public static JobState open(String sourceId,String md5){ return open(Paths.get("./state").resolve("jobs"),sourceId,md5); }
+  static JobState open(Path dir,String sourceId,String md5){
+    Path f=dir.resolve(sourceId.replaceAll("[^A-Za-z0-9._-]","_")+".json");
+    try{
+      if(Files.exists(f)){ var r=(ObjectNode)M.readTree(f.toFile()); String had=r.path("md5").asText(null);
+        if(md5==null || had==null || had.equals(md5)){ if(had==null && md5!=null) r.put("md5",md5); return new JobState(f,r); }
+        System.out.println("Source "+sourceId+" changed since its last run; starting its job over"); }
+    }catch(IOException|ClassCastException e){ System.err.println("Job state for "+sourceId+" unreadable, starting over: "+e.getMessage()); }
+    var r=M.createObjectNode(); r.put("source_id",sourceId); if(md5!=null) r.put("md5",md5); r.putObject("artifacts"); r.putObject("data");
+    return new JobState(f,r);
+  }
+
+  /** Last completed stage, or null before the first. */
+  public Stage stage(){ String s=root.path("stage").asText(null); return s==null? null: Stage.valueOf(s); }
+  public boolean done(Stage s){ var at=stage(); return at!=null && at.compareTo(s)>=0; }
+
+  /** Marks {@code s} complete (never moves the record backwards) with its artifacts and data, and saves. */
+  public synchronized void complete(Stage s,Map<String,Path> artifacts,Map<String,?> data) throws IOException{
+    var arts=(ObjectNode)root.get("artifacts");
+    // size and mtime only: hashing every output again here would read gigabytes for a check they already pass
+    for(var e: artifacts.entrySet()){ Path p=e.getValue().toAbsolutePath(); var a=arts.putObject(e.getKey());
+      a.put("path",p.toString()); a.put("size",Files.size(p)); a.put("mtime",Files.getLastModifiedTime(p).toMillis()); }
+    data.forEach(this::putData);
+    if(!done(s)) root.put("stage",s.name());
+    save();
+    long now=System.currentTimeMillis();
+    if(done(Stage.POSTED) && now-lastPrune>PRUNE_EVERY_MS){ lastPrune=now; prune(file.getParent(),Duration.ofDays(Long.parseLong(Config.env("JOB_STATE_RETENTION_DAYS","30")))); }
+  }
+  /** Stores one data value without completing a stage (e.g. per-file upload IDs as they finish). */
+  public synchronized void put(String key,Object value) throws IOException{ putData(key,value); save(); }
+  public JsonNode data(String key){ return root.path("data").path(key); }
+
+  /** The artifact's file while it still matches what was recorded, else null. */
+  public synchronized Path artifact(String name){
+    JsonNode a=root.path("artifacts").path(name); if(a.isMissingNode()) return null;
+    Path p=Paths.get(a.path("path").asText());
+    try{
+      if(!Files.isRegularFile(p) || Files.size(p)!=a.path("size").asLong()) return null;
+      if(Files.getLastModifiedTime(p).toMillis()==a.path("mtime").asLong() || (a.has("md5") && RangedDownloader.md5(p).equalsIgnoreCase(a.path("md5").asText()))) return p;
+    }catch(IOException e){ /* treat as missing */ }
+    return null;
+  }
+  /** Artifacts {@code prefix0..prefixN-1} in order, or null unless all of them are still valid. */
+  public List<Path> artifacts(String prefix,int n){
+    var out=new ArrayList<Path>(); for(int i=0;i<n;i++){ Path p=artifact(prefix+i); if(p==null) return null; out.add(p); } return out;
+  }
+
+  private void putData(String key,Object value){ ((ObjectNode)root.get("data")).set(key,M.valueToTree(value)); }
+  private void save() throws IOException{
+    root.put("updated_at",Instant.now().toString()); Config.writeAtomically(file,M.writerWithDefaultPrettyPrinter().writeValueAsBytes(root));
+  }
+  /** Deletes records at a terminal stage (POSTED or later) not written for {@code retention}. */
+  static void prune(Path dir,Duration retention){
+    var cutoff=Instant.now().minus(retention);
+    try(var s=Files.list(dir)){
+      for(Path p: s.filter(x->x.toString().endsWith(".json")).toList()){
+        try{
+          if(!Files.getLastModifiedTime(p).toInstant().isBefore(cutoff)) continue;
+          String stage=M.readTree(p.toFile()).path("stage").asText(null);
+          if(stage!=null && Stage.valueOf(stage).compareTo(Stage.POSTED)>=0) Files.deleteIfExists(p);
+        }catch(IOException|IllegalArgumentException e){ /* being rewritten, or not a record: leave it */ }
+      }
+    }catch(IOException e){ System.err.println("Job state prune failed: "+e.getMessage()); }
+  }
+}
@@ -0,0 +1,51 @@
+package com.autopost;
+import java.io.*; import java.nio.file.*; import java.util.*;
+/**
+ * Video keyframe timestamps of a source, from ffprobe with {@code -skip_frame nokey} (only keyframes are decoded).
+ * Cached in a {@code .kfi} sidecar next to the source, stamped with its size and mtime and holding varint
+ * microsecond deltas, so a retry over the same download reuses it.
+ */
+public class KeyframeIndex {
+  private final double[] times;
+  KeyframeIndex(double[] times){ this.times=times; }
+
+  public static KeyframeIndex of(String ffprobe,Path src) throws Exception{
+    Path side=src.resolveSibling(src.getFileName()+".kfi"); long size=Files.size(src), mtime=Files.getLastModifiedTime(src).toMillis();
+    var cached=read(side,size,mtime); if(cached!=null) return cached;
+    var p=new ProcessBuilder(ffprobe,"-v","error","-select_streams","v:0","-skip_frame","nokey","-show_entries","frame=pts_time","-of","compact=p=0",src.toString())
+      .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+    List<Double> kf; try(var in=FfmpegRun.watch(p,"ffprobe keyframes")){ kf=ScenePtsParser.parse(in,0); }
+    if(p.waitFor()!=0) throw new RuntimeException("ffprobe exited "+p.exitValue()+" indexing "+src.getFileName());
+    var idx=new KeyframeIndex(kf.stream().mapToDouble(Double::doubleValue).sorted().toArray());
+    try{ idx.write(side,size,mtime); }catch(IOException e){ System.err.println("Keyframe index write failed: "+e.getMessage()); }
+    return idx;
+  }
+
+  public int size(){ return times.length; }
+  public boolean isEmpty(){ return times.length==0; }
+  /** Keyframe closest to {@code t}; {@code t} itself when there are no keyframes. */
+  public double nearest(double t){
+    int i=Arrays.binarySearch(times,t); if(i>=0) return times[i]; i=-i-1;
+    if(i==0) return times.length==0? t: times[0]; if(i==times.length) return times[i-1];
+    return t-times[i-1]<=times[i]-t? times[i-1]: times[i];
+  }
+  /** Last keyframe at or before {@code t}, i.e. where a copy starting at {@code t} really begins. */
+  public double floor(double t){
+    int i=Arrays.binarySearch(times,t); if(i>=0) return times[i]; i=-i-1; return i==0? (times.length==0? t: times[0]): times[i-1];
+  }
+
+  private static KeyframeIndex read(Path f,long size,long mtime){
+    if(!Files.exists(f)) return null;
+    try(var in=new DataInputStream(new BufferedInputStream(Files.newInputStream(f)))){
+      if(SceneCache.readVarint(in)!=size || SceneCache.readVarint(in)!=mtime) return null;
+      int n=(int)SceneCache.readVarint(in); double[] t=new double[n]; long us=0;
+      for(int i=0;i<n;i++){ us+=SceneCache.readVarint(in); t[i]=us/1e6; }
+      return new KeyframeIndex(t);
+    }catch(IOException e){ return null; }
+  }
+  private void write(Path f,long size,long mtime) throws IOException{
+    var bytes=new ByteArrayOutputStream(); SceneCache.writeVarint(bytes,size); SceneCache.writeVarint(bytes,mtime); SceneCache.writeVarint(bytes,times.length); long prev=0;
+    for(double t: times){ long us=Math.max(prev,Math.round(Math.max(0,t)*1e6)); SceneCache.writeVarint(bytes,us-prev); prev=us; }
+    Config.writeAtomically(f,bytes.toByteArray());
+  }
+}
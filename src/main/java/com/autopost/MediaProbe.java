@@ -0,0 +1,59 @@
+package com.autopost;
+import com.fasterxml.jackson.databind.JsonNode; import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.*; import java.nio.file.*; import java.time.*; import java.util.*;
+/**
+ * ffprobe media facts (codecs, resolution, frame rate, keyframe interval) cached per file under state/probe_cache,
+ * keyed by path + size + mtime so a changed file is probed again. Entries unused for 30 days are pruned on write.
+ */
+public class MediaProbe {
+  private static final ObjectMapper M=new ObjectMapper();
+  private final String ffprobe; private final Path dir;
+  public MediaProbe(String ffprobe){ this(ffprobe, Paths.get("./state").resolve("probe_cache")); }
+  MediaProbe(String ffprobe,Path dir){ this.ffprobe=ffprobe; this.dir=dir; }
+
+  /** @param acodec null when the file has no audio; @param keyint mean seconds between video keyframes (0 if unknown) */
+  public record Info(String vcodec,String acodec,String pixFmt,int width,int height,double fps,double keyint,double duration){
+    /** Streams can go into an mp4 as they are (H.264 video, AAC or no audio). */
+    public boolean mp4Copyable(){ return "h264".equals(vcodec) && (acodec==null || "aac".equals(acodec)); }
+    /** Already H.264/AAC 1920x1080 yuv420p at 60 fps, with keyframes at most {@code maxKeyint} seconds apart. */
+    public boolean matches1080p60(double maxKeyint){
+      return mp4Copyable() && "yuv420p".equals(pixFmt)
+          && width==1920 && height==1080 && Math.abs(fps-60)<0.05 && keyint>0 && keyint<=maxKeyint;
+    }
+  }
+
+  public Info probe(Path in) throws Exception{
+    Path f=null;
+    try{ f=dir.resolve(Config.hash(in.toAbsolutePath(),Files.size(in),Files.getLastModifiedTime(in).toMillis())+".json");
+      if(Files.exists(f)){ Files.setLastModifiedTime(f,java.nio.file.attribute.FileTime.from(Instant.now())); return M.readValue(f.toFile(),Info.class); } }
+    catch(IOException e){ /* unreadable entry: probe again */ }
+    var info=run(in);
+    if(f!=null) try{ Files.createDirectories(dir); M.writeValue(f.toFile(),info); prune(); }catch(IOException e){ System.err.println("Probe cache write failed: "+e.getMessage()); }
+    return info;
+  }
+
+  private Info run(Path in) throws Exception{
+    JsonNode root=M.readTree(exec(List.of(ffprobe,"-v","error","-show_entries","stream=codec_type,codec_name,width,height,avg_frame_rate,pix_fmt:format=duration","-of","json",in.toString())));
+    String vcodec=null, acodec=null, pix=null; int w=0, h=0; double fps=0;
+    for(JsonNode s: root.path("streams")){
+      if(vcodec==null && "video".equals(s.path("codec_type").asText())){ vcodec=s.path("codec_name").asText(); pix=s.path("pix_fmt").asText(null); w=s.path("width").asInt(); h=s.path("height").asInt(); fps=rate(s.path("avg_frame_rate").asText()); }
+      if(acodec==null && "audio".equals(s.path("codec_type").asText())) acodec=s.path("codec_name").asText();
+    }
+    return new Info(vcodec,acodec,pix,w,h,fps,keyint(in),root.path("format").path("duration").asDouble(0));
+  }
+  /** Mean keyframe spacing over the first minute, decoding keyframes only. */
+  private double keyint(Path in) throws Exception{
+    var kf=new ArrayList<Double>();
+    for(String line: exec(List.of(ffprobe,"-v","error","-select_streams","v:0","-skip_frame","nokey","-read_intervals","%+60","-show_entries","frame=pts_time","-of","csv=p=0",in.toString())).split("\n"))
+      try{ kf.add(Double.parseDouble(line.trim().replace(",",""))); }catch(NumberFormatException ignore){}
+    return kf.size()<2? 0: (kf.get(kf.size()-1)-kf.get(0))/(kf.size()-1);
+  }
+  private static double rate(String r){
+    try{ int i=r.indexOf('/'); return i<0? Double.parseDouble(r): Double.parseDouble(r.substring(0,i))/Double.parseDouble(r.substring(i+1)); }catch(Exception e){ return 0; }
+  }
+  private static String exec(List<String> cmd) throws Exception{ return FfmpegRun.capture(cmd); }
+  private void prune() throws IOException{
+    var cutoff=Instant.now().minus(Duration.ofDays(30));
+    try(var s=Files.list(dir)){ for(Path p: s.toList()) if(Files.getLastModifiedTime(p).toInstant().isBefore(cutoff)) Files.deleteIfExists(p); }
+  }
+}
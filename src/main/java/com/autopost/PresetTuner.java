@@ -0,0 +1,91 @@
+package com.autopost;
+import com.fasterxml.jackson.databind.JsonNode; import com.fasterxml.jackson.databind.ObjectMapper; import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.*; import java.nio.file.*; import java.time.*; import java.util.*;
+/**
+ * ENCODE_PRESET=auto: picks an x264 preset per job. Short calibration encodes of a sample from the source, one per
+ * preset in ENCODE_AUTOTUNE_PRESETS (fastest first), measure speed (x realtime) and bitrate on this box at the x264
+ * thread count the job's encodes use; they are kept in state/preset_calibration.json for
+ * ENCODE_CALIBRATION_MAX_AGE_DAYS (default 7) per host, core count and thread count. A job
+ * gets the slowest preset whose measured speed finishes its encode seconds before the deadline: the timestamp in
+ * state/next_run.json when it is still ahead, otherwise ENCODE_BUDGET_SEC (default 0 = none) from the start of the
+ * run. Without a deadline, or without a usable calibration, jobs use ENCODE_AUTOTUNE_FALLBACK (default fast).
+ */
+public class PresetTuner {
+  private static final ObjectMapper M=new ObjectMapper();
+  private final String ffmpeg; private final Path state, tmp; private final List<String> presets; private final String fallback;
+  private final double sampleSec, margin; private final long budgetSec, maxAgeDays; private final Instant started=Instant.now();
+  private final Map<Integer,Map<String,double[]>> measured=new HashMap<>(); // threads -> preset -> {speed, kbps}
+
+  public PresetTuner(String ffmpeg,Path tmp){
+    this(ffmpeg,Paths.get("./state"),tmp,List.of(Config.env("ENCODE_AUTOTUNE_PRESETS","ultrafast,superfast,veryfast,faster,fast,medium,slow").split("\\s*,\\s*")),
+      Config.env("ENCODE_AUTOTUNE_FALLBACK","fast"),Double.parseDouble(Config.env("ENCODE_CALIBRATION_SEC","4")),Double.parseDouble(Config.env("ENCODE_BUDGET_MARGIN","0.8")),
+      Long.parseLong(Config.env("ENCODE_BUDGET_SEC","0")),Long.parseLong(Config.env("ENCODE_CALIBRATION_MAX_AGE_DAYS","7")));
+  }
+  PresetTuner(String ffmpeg,Path state,Path tmp,List<String> presets,String fallback,double sampleSec,double margin,long budgetSec,long maxAgeDays){
+    this.ffmpeg=ffmpeg; this.state=state; this.tmp=tmp; this.presets=presets; this.fallback=fallback; this.sampleSec=sampleSec; this.margin=margin; this.budgetSec=budgetSec; this.maxAgeDays=maxAgeDays;
+  }
+
+  /**
+   * Preset for a job that encodes {@code encodeSec} seconds of output from {@code sample} (calibrated on first use).
+   * @param sampleDuration length of {@code sample} in seconds, to take the calibration clip from its middle
+   * @param threads x264 threads of the job's encodes (0 = ffmpeg's default)
+   */
+  public String presetFor(Path sample,double sampleDuration,double encodeSec,int threads){
+    var deadline=deadline(); if(deadline==null) return fallback;
+    var speeds=calibration(sample,sampleDuration,threads); if(speeds.isEmpty()) return fallback;
+    double left=Duration.between(Instant.now(),deadline).toMillis()/1000.0*margin;
+    String pick=choose(speeds,encodeSec,left);
+    System.out.println(String.format(Locale.ROOT,"Encode preset %s for %.0fs of output, %.0fs budget left",pick,encodeSec,left)); return pick;
+  }
+
+  /** Slowest preset (in list order) fast enough for {@code encodeSec} in {@code budgetSec}; the fastest one if none is. */
+  String choose(Map<String,double[]> speeds,double encodeSec,double budgetSec){
+    String pick=null;
+    for(String p: presets){ var m=speeds.get(p); if(m==null) continue; if(pick==null) pick=p; if(budgetSec>0 && m[0]*budgetSec>=encodeSec) pick=p; }
+    return pick==null? fallback: pick;
+  }
+
+  /** next_run.json's timestamp while it is in the future, else the configured budget from the start of this run, else null. */
+  Instant deadline(){
+    try{ Path f=state.resolve("next_run.json");
+      if(Files.exists(f)){ JsonNode ts=M.readTree(f.toFile()).get("timestamp"); if(ts!=null){ var t=ZonedDateTime.parse(ts.asText()).toInstant(); if(t.isAfter(Instant.now())) return t; } } }
+    catch(Exception e){ System.err.println("next_run.json unreadable for encode budget: "+e.getMessage()); }
+    return budgetSec>0? started.plusSeconds(budgetSec): null;
+  }
+
+  synchronized Map<String,double[]> calibration(Path sample,double sampleDuration,int threads){
+    if(measured.containsKey(threads)) return measured.get(threads);
+    Path f=state.resolve("preset_calibration.json"); String host=host(), at=String.valueOf(threads); ObjectNode root=M.createObjectNode();
+    try{
+      if(Files.exists(f)){ JsonNode old=M.readTree(f.toFile());
+        if(host.equals(old.path("host").asText()) && old.path("threads").isObject()) root=(ObjectNode)old;
+        JsonNode c=root.path("threads").path(at);
+        if(c.isObject() && Instant.parse(c.path("measured_at").asText()).isAfter(Instant.now().minus(Duration.ofDays(maxAgeDays)))){
+          var m=new LinkedHashMap<String,double[]>(); c.path("presets").fields().forEachRemaining(e->m.put(e.getKey(),new double[]{e.getValue().path("speed").asDouble(),e.getValue().path("kbps").asDouble()}));
+          if(m.keySet().containsAll(presets)){ measured.put(threads,m); return m; } } }
+    }catch(Exception e){ System.err.println("Preset calibration unreadable, measuring again: "+e.getMessage()); root=M.createObjectNode(); }
+    var m=new LinkedHashMap<String,double[]>(); double from=Math.max(0,sampleDuration/2-sampleSec/2);
+    for(String p: presets){
+      Path out=tmp.resolve("calibrate-"+p+"-"+ProcessHandle.current().pid()+".mp4");
+      try{
+        var cmd=new ArrayList<>(List.of(ffmpeg,"-y","-ss",VideoProcessor.fmt(from),"-t",VideoProcessor.fmt(sampleSec),"-i",sample.toString(),"-an","-vf","scale=1920:1080:force_original_aspect_ratio=decrease,pad=1920:1080:(ow-iw)/2:(oh-ih)/2,fps=60"));
+        cmd.addAll(VideoProcessor.x264Args(threads,p)); cmd.add(out.toString());
+        var r=FfmpegRun.ffmpeg("calibrate "+p,cmd,sampleSec,0,null,null);
+        if(r.ok() && r.wallSec()>0 && r.outSec()>0) m.put(p,new double[]{r.outSec()/r.wallSec(), Files.size(out)*8/1000.0/r.outSec()});
+      }catch(Exception e){ System.err.println("Calibration encode at "+p+" failed: "+e.getMessage()); }
+      finally{ try{ Files.deleteIfExists(out); }catch(IOException ignore){} }
+    }
+    measured.put(threads,m); if(m.isEmpty()) return m;
+    try{ root.put("host",host); root.put("sample_sec",sampleSec);
+      ObjectNode c=(root.path("threads").isObject()? (ObjectNode)root.get("threads"): root.putObject("threads")).putObject(at); c.put("measured_at",Instant.now().toString());
+      ObjectNode ps=c.putObject("presets"); m.forEach((k,v)->{ var o=ps.putObject(k); o.put("speed",v[0]); o.put("kbps",v[1]); });
+      Files.createDirectories(state); M.writerWithDefaultPrettyPrinter().writeValue(f.toFile(),root); }
+    catch(IOException e){ System.err.println("Preset calibration write failed: "+e.getMessage()); }
+    return m;
+  }
+
+  private static String host(){
+    String h; try{ h=java.net.InetAddress.getLocalHost().getHostName(); }catch(Exception e){ h="unknown"; }
+    return h+"/"+Runtime.getRuntime().availableProcessors();
+  }
+}
@@ -0,0 +1,81 @@
+package com.autopost;
+import java.io.*; import java.net.URI; import java.net.http.*; import java.nio.ByteBuffer; import java.nio.channels.FileChannel; import java.nio.file.*;
+import java.security.MessageDigest; import java.time.Duration; import java.util.*; import java.util.concurrent.*; import java.util.function.LongConsumer; import java.util.function.Supplier;
+/**
+ * Multi-connection download engine: splits a file into byte ranges, fetches them concurrently over one pooled
+ * HttpClient and writes each at its offset with positional FileChannel writes. A failed range is retried on its own
+ * (resuming from the last byte it wrote) and the finished file is checked against the expected MD5.
+ * DOWNLOAD_CONNECTIONS (default 8), DOWNLOAD_PART_MB (default 32) and DOWNLOAD_RETRIES (default 3) tune it; a range
+ * that receives nothing for DOWNLOAD_STALL_SEC (default 30) is aborted and retried. Files smaller than
+ * DOWNLOAD_RANGED_MIN_MB (default 64) aren't worth splitting. Ranges are started in file order, and the length of the
+ * contiguous prefix written so far can be followed, so the start of the file can be read while the rest arrives.
+ */
+public class RangedDownloader {
+  static final long MIN_SIZE=Long.parseLong(Config.env("DOWNLOAD_RANGED_MIN_MB","64"))<<20;
+  private static final HttpClient HTTP=HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(20)).followRedirects(HttpClient.Redirect.NORMAL).build();
+  private static final ScheduledExecutorService WATCHDOG=Executors.newSingleThreadScheduledExecutor(r->{ var t=new Thread(r,"range-watchdog"); t.setDaemon(true); return t; });
+  private final HttpClient http; private final int connections, retries; private final long partSize, stallMs;
+  public RangedDownloader(){ this(HTTP, Integer.parseInt(Config.env("DOWNLOAD_CONNECTIONS","8")), Long.parseLong(Config.env("DOWNLOAD_PART_MB","32"))<<20, Integer.parseInt(Config.env("DOWNLOAD_RETRIES","3")), Long.parseLong(Config.env("DOWNLOAD_STALL_SEC","30"))*1000); }
+  RangedDownloader(HttpClient http,int connections,long partSize,int retries,long stallMs){ this.http=http; this.connections=Math.max(1,connections); this.partSize=Math.max(1,partSize); this.retries=Math.max(0,retries); this.stallMs=Math.max(100,stallMs); }
+
+  public static boolean worthSplitting(long size){ return size>=MIN_SIZE; }
+
+  /**
+   * @param auth supplies the Authorization header per request (tokens may refresh during long downloads); null for none
+   * @param md5 expected lowercase hex digest, or null/blank to skip verification
+   */
+  public void download(URI uri,Supplier<String> auth,long size,String md5,Path dest) throws IOException{ download(uri,auth,size,md5,dest,null); }
+  /** Same, reporting each time the complete prefix of {@code dest} grows (its length in bytes) to {@code prefix}. */
+  public void download(URI uri,Supplier<String> auth,long size,String md5,Path dest,LongConsumer prefix) throws IOException{
+    var parts=new ArrayList<long[]>(); for(long off=0; off<size; off+=partSize) parts.add(new long[]{off, Math.min(size,off+partSize)-1});
+    // Next byte each range will write; ranges before `first` are complete
+    long[] at=new long[parts.size()]; for(int i=0;i<at.length;i++) at[i]=parts.get(i)[0]; int[] first={0};
+    LongConsumer[] wrote=new LongConsumer[parts.size()];
+    for(int i=0;i<at.length;i++){ int idx=i; wrote[i]=pos->{ if(prefix==null) return;
+      synchronized(at){ at[idx]=pos; while(first[0]<at.length && at[first[0]]>parts.get(first[0])[1]) first[0]++; prefix.accept(first[0]==at.length? size: at[first[0]]); } }; }
+    var pool=Executors.newFixedThreadPool(Math.min(connections,Math.max(1,parts.size())), r->{ var t=new Thread(r,"range-"+dest.getFileName()); t.setDaemon(true); return t; });
+    try(var ch=FileChannel.open(dest,StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING)){
+      if(size>0) ch.write(ByteBuffer.wrap(new byte[1]),size-1); // preallocate so ranges can land in any order
+      var futures=new ArrayList<Future<?>>();
+      for(int i=0;i<parts.size();i++){ long[] p=parts.get(i); var w=wrote[i]; futures.add(pool.submit(()->{ fetch(uri,auth,p[0],p[1],ch,w); return null; })); }
+      for(var f: futures){
+        try{ f.get(); }
+        catch(InterruptedException e){ Thread.currentThread().interrupt(); throw new InterruptedIOException("download interrupted"); }
+        catch(ExecutionException e){ futures.forEach(x->x.cancel(true)); throw e.getCause() instanceof IOException io? io: new IOException(e.getCause()); }
+      }
+      ch.force(false);
+    }finally{ pool.shutdownNow(); }
+    if(md5!=null && !md5.isBlank()){ String got=md5(dest); if(!got.equalsIgnoreCase(md5)) throw new IOException("MD5 mismatch for "+dest.getFileName()+": expected "+md5+", got "+got); }
+  }
+
+  private void fetch(URI uri,Supplier<String> auth,long from,long to,FileChannel ch,LongConsumer wrote) throws IOException, InterruptedException{
+    long pos=from; IOException last=null;
+    for(int attempt=0; attempt<=retries; attempt++){
+      if(attempt>0) Thread.sleep(Math.min(8000L, 500L<<attempt));
+      var req=HttpRequest.newBuilder(uri).timeout(Duration.ofMinutes(5)).header("Range","bytes="+pos+"-"+to).GET();
+      String a=auth==null? null: auth.get(); if(a!=null) req.header("Authorization",a);
+      try{
+        var res=http.send(req.build(), HttpResponse.BodyHandlers.ofInputStream());
+        InputStream in=res.body(); var seen=new java.util.concurrent.atomic.AtomicLong(System.currentTimeMillis());
+        // HttpClient has no body read timeout: close the stream if the range stops making progress
+        var watch=WATCHDOG.scheduleWithFixedDelay(()->{ if(System.currentTimeMillis()-seen.get()>stallMs) try{ in.close(); }catch(IOException ignore){} }, stallMs/2, stallMs/2, TimeUnit.MILLISECONDS);
+        try(in){
+          if(res.statusCode()!=206) throw new IOException("Range "+pos+"-"+to+" got HTTP "+res.statusCode());
+          byte[] buf=new byte[1<<16]; int n;
+          while(pos<=to && (n=in.read(buf,0,(int)Math.min(buf.length,to-pos+1)))>=0){ seen.set(System.currentTimeMillis()); var bb=ByteBuffer.wrap(buf,0,n); while(bb.hasRemaining()) pos+=ch.write(bb,pos); wrote.accept(pos); }
+        }finally{ watch.cancel(false); }
+        if(pos>to) return;
+        last=new IOException("Range "+from+"-"+to+" ended early at "+pos);
+      }catch(IOException e){ last=e; }
+    }
+    throw last;
+  }
+
+  static String md5(Path file) throws IOException{
+    try(var ch=FileChannel.open(file,StandardOpenOption.READ)){
+      var md=MessageDigest.getInstance("MD5"); var buf=ByteBuffer.allocateDirect(1<<20);
+      while(ch.read(buf)>=0){ buf.flip(); md.update(buf); buf.clear(); }
+      return HexFormat.of().formatHex(md.digest());
+    }catch(java.security.NoSuchAlgorithmException e){ throw new IllegalStateException(e); }
+  }
+}
@@ -0,0 +1,106 @@
+package com.autopost;
+import com.fasterxml.jackson.databind.JsonNode; import com.fasterxml.jackson.databind.ObjectMapper; import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.api.services.drive.Drive; import com.google.api.services.drive.model.Change; import com.google.api.services.drive.model.ChangeList;
+import com.google.api.services.drive.model.File; import com.google.api.services.drive.model.FileList;
+import java.io.*; import java.nio.file.*; import java.time.Instant; import java.util.*;
+/**
+ * Local index of the videos in one Drive folder (RAW), oldest first, kept current through Drive's changes feed instead
+ * of listing the folder on every run: the first sync takes a start page token and lists the folder once, later syncs
+ * read only the changes since the stored token (one call when nothing happened, however many files the folder holds).
+ * Token and entries are kept in state/raw_index/<folder>.json. If the feed fails (e.g. a token Drive no longer
+ * accepts) the folder is listed again from scratch.
+ */
+public final class RawIndex {
+  public record Entry(String id,String name,long size,String md5,String mimeType,Instant createdTime){}
+  /** One page of the feed: every changed file ID with its entry, or null when it is no longer a video in the folder. */
+  public record Changes(Map<String,Entry> changed,String nextPageToken,String newStartPageToken){}
+  /** Where the index reads Drive; {@link #forDrive} is the real one. */
+  interface Feed {
+    String startPageToken() throws IOException;
+    List<Entry> list(String folderId) throws IOException;
+    Changes changes(String pageToken,String folderId) throws IOException;
+  }
+  private static final ObjectMapper M=new ObjectMapper();
+  private static final Comparator<Entry> ORDER=Comparator.comparing(Entry::createdTime).thenComparing(Entry::id);
+  private final Feed feed; private final String folderId; private final Path file;
+  private final Map<String,Entry> byId=new HashMap<>(); private final TreeSet<Entry> queue=new TreeSet<>(ORDER); private String token;
+
+  public static RawIndex forDrive(Drive drive,String folderId){
+    return new RawIndex(new DriveFeed(drive),folderId,Paths.get("./state").resolve("raw_index").resolve(folderId.replaceAll("[^A-Za-z0-9._-]","_")+".json"));
+  }
+  RawIndex(Feed feed,String folderId,Path file){ this.feed=feed; this.folderId=folderId; this.file=file; load(); }
+
+  /** Brings the index up to date: the changes since the last sync, or a full listing the first time. */
+  public synchronized void sync() throws IOException{
+    if(token!=null){
+      try{ applyChanges(); return; }
+      catch(IOException e){ System.err.println("RAW change feed failed ("+e.getMessage()+"); listing the folder again"); }
+    }
+    String start=feed.startPageToken(); // taken before the listing, so a change made during it is replayed next time
+    List<Entry> all=feed.list(folderId);
+    byId.clear(); queue.clear(); all.forEach(this::put); token=start; save();
+    System.out.println("Indexed RAW folder: "+queue.size()+" videos");
+  }
+  private void applyChanges() throws IOException{
+    String t=token; int n=0;
+    while(true){
+      Changes page=feed.changes(t,folderId);
+      for(var c: page.changed().entrySet()){ drop(c.getKey()); if(c.getValue()!=null) put(c.getValue()); }
+      n+=page.changed().size();
+      if(page.newStartPageToken()!=null){ t=page.newStartPageToken(); break; }
+      t=page.nextPageToken(); if(t==null) throw new IOException("change feed ended without a new start token");
+    }
+    boolean moved=!t.equals(token); token=t;
+    if(n>0 || moved) save();
+  }
+
+  /** The oldest video, or null when the folder is empty. */
+  public synchronized Entry oldest(){ return queue.isEmpty()? null: queue.first(); }
+  public synchronized List<Entry> oldestFirst(){ return new ArrayList<>(queue); }
+  public synchronized List<Entry> newestFirst(){ return new ArrayList<>(queue.descendingSet()); }
+  public synchronized int size(){ return queue.size(); }
+
+  private void put(Entry e){ drop(e.id()); byId.put(e.id(),e); queue.add(e); }
+  private void drop(String id){ Entry old=byId.remove(id); if(old!=null) queue.remove(old); }
+
+  private void load(){
+    if(!Files.exists(file)) return;
+    try{ JsonNode n=M.readTree(file.toFile());
+      if(!folderId.equals(n.path("folder").asText())) return;
+      for(JsonNode e: n.path("files")) put(new Entry(e.path("id").asText(),e.path("name").asText(),e.path("size").asLong(-1),e.path("md5").asText(null),e.path("mime_type").asText(null),Instant.parse(e.path("created_time").asText())));
+      token=n.path("page_token").asText(null); }
+    catch(IOException|RuntimeException e){ byId.clear(); queue.clear(); token=null; System.err.println("RAW index unreadable, relisting: "+e.getMessage()); }
+  }
+  private void save(){
+    ObjectNode n=M.createObjectNode(); n.put("folder",folderId); n.put("page_token",token); var files=n.putArray("files");
+    for(Entry e: queue){ var o=files.addObject(); o.put("id",e.id()); o.put("name",e.name()); o.put("size",e.size()); if(e.md5()!=null) o.put("md5",e.md5()); if(e.mimeType()!=null) o.put("mime_type",e.mimeType()); o.put("created_time",e.createdTime().toString()); }
+    try{ Config.writeAtomically(file,M.writeValueAsBytes(n)); }
+    catch(IOException e){ System.err.println("RAW index write failed: "+e.getMessage()); }
+  }
+
+  private record DriveFeed(Drive drive) implements Feed {
+    private static final String FIELDS="id,name,size,md5Checksum,mimeType,createdTime,parents,trashed";
+    public String startPageToken() throws IOException{ return drive.changes().getStartPageToken().setFields("startPageToken").execute().getStartPageToken(); }
+    public List<Entry> list(String folderId) throws IOException{
+      var out=new ArrayList<Entry>(); String page=null;
+      do{ FileList l=drive.files().list().setQ("'"+folderId+"' in parents and mimeType contains 'video/' and trashed=false").setFields("nextPageToken,files("+FIELDS+")").setPageSize(1000).setPageToken(page).execute();
+        if(l.getFiles()!=null) for(File f: l.getFiles()) out.add(entry(f));
+        page=l.getNextPageToken(); }while(page!=null);
+      return out;
+    }
+    public Changes changes(String pageToken,String folderId) throws IOException{
+      ChangeList l=drive.changes().list(pageToken).setSpaces("drive").setIncludeRemoved(true).setPageSize(1000)
+        .setFields("nextPageToken,newStartPageToken,changes(fileId,removed,file("+FIELDS+"))").execute();
+      var out=new LinkedHashMap<String,Entry>();
+      if(l.getChanges()!=null) for(Change c: l.getChanges()){
+        File f=c.getFile();
+        boolean in=!Boolean.TRUE.equals(c.getRemoved()) && f!=null && !Boolean.TRUE.equals(f.getTrashed()) && f.getParents()!=null && f.getParents().contains(folderId) && String.valueOf(f.getMimeType()).startsWith("video/");
+        out.put(c.getFileId(),in? entry(f): null);
+      }
+      return new Changes(out,l.getNextPageToken(),l.getNewStartPageToken());
+    }
+    private static Entry entry(File f){
+      return new Entry(f.getId(),f.getName(),f.getSize()==null? -1: f.getSize(),f.getMd5Checksum(),f.getMimeType(),f.getCreatedTime()==null? Instant.EPOCH: Instant.ofEpochMilli(f.getCreatedTime().getValue()));
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.autopost;
+import com.fasterxml.jackson.databind.ObjectMapper; import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.*; import java.nio.file.*; import java.time.*; import java.util.*;
+/**
+ * Render-ahead buffer of posts that are ready to go out: state/ready/<source>/ holds the media and a package.json
+ * (caption, source checksum, when it was made), oldest first. A package is assembled in a temp directory and renamed
+ * into place, so a crash mid-build never leaves a half-made one in the queue.
+ */
+public final class ReadyQueue {
+  public record Package(String sourceId,String md5,Path dir,Path media,String caption,Instant readyAt){}
+  private static final ObjectMapper M=new ObjectMapper(); private static final String META="package.json", TMP=".tmp-";
+  private final Path root;
+  public ReadyQueue(){ this(Paths.get("./state").resolve("ready")); }
+  ReadyQueue(Path root){ this.root=root; }
+
+  /** Ready packages, oldest first; unreadable or incomplete directories are skipped. */
+  public synchronized List<Package> list(){
+    var out=new ArrayList<Package>(); if(!Files.isDirectory(root)) return out;
+    try(var s=Files.list(root)){
+      for(Path d: s.filter(Files::isDirectory).toList()){
+        if(d.getFileName().toString().startsWith(TMP) || !Files.exists(d.resolve(META))) continue;
+        try{ var n=M.readTree(d.resolve(META).toFile()); Path media=d.resolve(n.path("media").asText());
+          if(Files.isRegularFile(media)) out.add(new Package(n.path("source_id").asText(),n.path("md5").asText(null),d,media,n.path("caption").asText(),Instant.parse(n.path("ready_at").asText()))); }
+        catch(IOException|RuntimeException e){ System.err.println("Skipping unreadable package "+d+": "+e.getMessage()); }
+      }
+    }catch(IOException e){ System.err.println("Ready queue listing failed: "+e.getMessage()); }
+    out.sort(Comparator.comparing(Package::readyAt)); return out;
+  }
+  public Package next(){ var l=list(); return l.isEmpty()? null: l.get(0); }
+  public int size(){ return list().size(); }
+  public boolean has(String sourceId){ return list().stream().anyMatch(p->p.sourceId().equals(sourceId)); }
+
+  /** Moves {@code media} into a new package for {@code sourceId}, replacing any older one; missing or empty media is refused. */
+  public synchronized Package add(String sourceId,String md5,Path media,String caption) throws IOException{
+    // A package goes out at its slot with no further checks
+    if(!Files.isRegularFile(media) || Files.size(media)==0) throw new IOException("Not queueing "+sourceId+": media "+media.getFileName()+" is missing or empty");
+    String name=sourceId.replaceAll("[^A-Za-z0-9._-]","_"); Path tmp=root.resolve(TMP+name), dest=root.resolve(name);
+    Workspace.deleteTree(tmp); Files.createDirectories(tmp);
+    Path m=tmp.resolve("media"+ext(media));
+    try{ Files.move(media,m,StandardCopyOption.ATOMIC_MOVE); }catch(IOException e){ Files.copy(media,m); Files.delete(media); } // e.g. across file systems
+    Instant at=Instant.now(); ObjectNode n=M.createObjectNode();
+    n.put("source_id",sourceId); if(md5!=null) n.put("md5",md5); n.put("media",m.getFileName().toString()); n.put("caption",caption); n.put("ready_at",at.toString());
+    M.writerWithDefaultPrettyPrinter().writeValue(tmp.resolve(META).toFile(),n);
+    Workspace.deleteTree(dest); Files.move(tmp,dest,StandardCopyOption.ATOMIC_MOVE);
+    return new Package(sourceId,md5,dest,dest.resolve(m.getFileName()),caption,at);
+  }
+  public synchronized void remove(Package p){
+    try{ Workspace.deleteTree(p.dir()); }catch(IOException e){ System.err.println("Ready package cleanup failed for "+p.dir()+": "+e.getMessage()); }
+  }
+
+  /**
+   * Whether preparation should run now: the next slot has nothing ready and it is within {@code lead} of it (lead
+   * being the expected preparation time plus a margin), or the overnight window is open and the buffer is short.
+   */
+  public static boolean shouldPrepare(Instant now,Instant slot,int ready,int buffer,Duration lead,boolean overnight){
+    if(slot!=null && ready==0 && !now.isBefore(slot.minus(lead)) && now.isBefore(slot.plusSeconds(60))) return true;
+    return overnight && ready<buffer;
+  }
+
+  private static String ext(Path p){ String n=p.getFileName().toString(); int i=n.lastIndexOf('.'); return i<0? "": n.substring(i); }
+}
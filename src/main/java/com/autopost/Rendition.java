@@ -0,0 +1,43 @@
+package com.autopost;
+import java.util.*;
+/**
+ * One output shape of a clip. RENDITIONS picks the ladder as a comma list of profile names (default {@code 1080p60}):
+ * {@code 1080p60} and {@code 720p30} letterbox 16:9, {@code vertical} crops to 1080x1920, and {@code vertical_blur}
+ * fits the whole frame over a blurred, cropped copy of itself. 1080p60 keeps the plain file name; every other
+ * rendition adds its name as a suffix.
+ */
+public record Rendition(String name,int width,int height,int fps,Fit fit){
+  public enum Fit{ PAD, CROP, BLUR }
+  public static final Rendition LANDSCAPE_1080=new Rendition("1080p60",1920,1080,60,Fit.PAD);
+  private static final Map<String,Rendition> PROFILES=new LinkedHashMap<>();
+  static {
+    for(var r: List.of(LANDSCAPE_1080, new Rendition("720p30",1280,720,30,Fit.PAD), new Rendition("vertical",1080,1920,60,Fit.CROP),
+        new Rendition("vertical_blur",1080,1920,60,Fit.BLUR))) PROFILES.put(r.name(),r);
+  }
+
+  public static List<Rendition> parse(String list){
+    var out=new ArrayList<Rendition>();
+    for(String n: list.split(",")){ n=n.trim().toLowerCase(Locale.ROOT); if(n.isEmpty()) continue;
+      var r=PROFILES.get(n); if(r==null) throw new IllegalArgumentException("Unknown rendition '"+n+"', expected one of "+PROFILES.keySet());
+      if(!out.contains(r)) out.add(r); }
+    if(out.isEmpty()) out.add(LANDSCAPE_1080); return out;
+  }
+
+  /** {@code base} (an .mp4 name) with this rendition's suffix. */
+  public String fileName(String base){
+    if(this.equals(LANDSCAPE_1080)) return base;
+    int dot=base.toLowerCase(Locale.ROOT).endsWith(".mp4")? base.length()-4: base.length();
+    return base.substring(0,dot)+"_"+name+".mp4";
+  }
+
+  /** Filter chain from pad {@code in} to pad {@code out}; {@code tag} keeps internal labels unique within the graph. */
+  public String filter(String in,String out,String tag){
+    String w=String.valueOf(width), h=String.valueOf(height), fill="scale="+w+":"+h+":force_original_aspect_ratio=increase,crop="+w+":"+h;
+    return switch(fit){
+      case PAD -> "["+in+"]scale="+w+":"+h+":force_original_aspect_ratio=decrease,pad="+w+":"+h+":(ow-iw)/2:(oh-ih)/2,fps="+fps+"["+out+"]";
+      case CROP -> "["+in+"]"+fill+",fps="+fps+"["+out+"]";
+      case BLUR -> "["+in+"]split[bg"+tag+"][fg"+tag+"];[bg"+tag+"]scale=iw/4:ih/4,"+fill+",boxblur=10:2[bb"+tag+"];"
+          +"[fg"+tag+"]scale="+w+":"+h+":force_original_aspect_ratio=decrease[ff"+tag+"];[bb"+tag+"][ff"+tag+"]overlay=(W-w)/2:(H-h)/2,fps="+fps+"["+out+"]";
+    };
+  }
+}
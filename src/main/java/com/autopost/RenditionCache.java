@@ -0,0 +1,68 @@
+package com.autopost;
+import java.io.*; import java.nio.file.*; import java.nio.file.attribute.FileTime; import java.util.*;
+/**
+ * Content-addressed store of encoded outputs under state/rendition_cache. An entry is keyed by everything that went
+ * into it (source checksum, segment start and duration, rendition, encode settings), so a source cut the same way is
+ * never encoded twice: a retry, a re-post or one regenerated rendition is taken out of the store. Outputs go in and
+ * out as hard links where the store and the workspace share a file system (copies otherwise), so a linked output must
+ * be replaced, never rewritten in place. Entries are written to a temp file and renamed. Last use is the mtime of an
+ * empty {@code <key>.used} marker, never the entry's own (a linked output shares it, and job checkpoints compare it);
+ * stores evict least recently used entries until the store fits RENDITION_CACHE_MAX_GB (default 20; 0 turns the store
+ * off).
+ */
+public class RenditionCache {
+  private static final Object EVICT=new Object();
+  private final Path dir; private final long maxBytes;
+  public RenditionCache(){ this(Paths.get("./state").resolve("rendition_cache"), (long)(Double.parseDouble(Config.env("RENDITION_CACHE_MAX_GB","20"))*(1L<<30))); }
+  RenditionCache(Path dir,long maxBytes){ this.dir=dir; this.maxBytes=maxBytes; }
+
+  /** Links or copies the entry for {@code key} to {@code dest}; false on a miss (or a copy that failed). */
+  public boolean get(String key,Path dest){
+    if(maxBytes<=0) return false;
+    Path f=dir.resolve(key+".mp4"); if(!Files.isRegularFile(f)) return false;
+    try{ link(f,dest); touch(key); return true; }
+    catch(IOException e){ // e.g. evicted between the check and the copy
+      try{ Files.deleteIfExists(dest); }catch(IOException ignored){}
+      return false;
+    }
+  }
+
+  /** Stores {@code file} (linked or copied) under {@code key}; a file larger than the whole budget is not kept. */
+  public void put(String key,Path file){
+    try{
+      if(maxBytes<=0 || Files.size(file)>maxBytes) return;
+      Files.createDirectories(dir); Path tmp=Files.createTempFile(dir,key,".tmp");
+      try{ link(file,tmp); Files.move(tmp,dir.resolve(key+".mp4"),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE); touch(key); }
+      finally{ Files.deleteIfExists(tmp); }
+      evict();
+    }catch(IOException e){ System.err.println("Rendition cache write failed: "+e.getMessage()); }
+  }
+
+  // A hard link on the same file system, no bytes copied; a copy across file systems or where links are unsupported
+  private static void link(Path from,Path to) throws IOException{
+    Files.deleteIfExists(to);
+    try{ Files.createLink(to,from); }
+    catch(UnsupportedOperationException|FileSystemException e){ Files.copy(from,to,StandardCopyOption.REPLACE_EXISTING); } // e.g. EXDEV
+  }
+
+  private void touch(String key) throws IOException{
+    Path used=dir.resolve(key+".used");
+    try{ Files.setLastModifiedTime(used,FileTime.fromMillis(System.currentTimeMillis())); }catch(NoSuchFileException e){ Files.createFile(used); }
+  }
+  // Entries stored before the markers existed count from their own mtime
+  private FileTime lastUsed(Path entry) throws IOException{
+    Path used=dir.resolve(entry.getFileName().toString().replace(".mp4",".used"));
+    try{ return Files.getLastModifiedTime(used); }catch(NoSuchFileException e){ return Files.getLastModifiedTime(entry); }
+  }
+
+  private void evict() throws IOException{
+    synchronized(EVICT){
+      List<Path> files; try(var s=Files.list(dir)){ files=new ArrayList<>(s.filter(p->p.toString().endsWith(".mp4")).toList()); }
+      long total=0; var sizes=new HashMap<Path,Long>(); var times=new HashMap<Path,FileTime>();
+      for(Path p: files){ try{ sizes.put(p,Files.size(p)); times.put(p,lastUsed(p)); total+=sizes.get(p); }catch(NoSuchFileException e){ /* evicted meanwhile */ } }
+      if(total<=maxBytes) return;
+      files.removeIf(p->!sizes.containsKey(p)); files.sort(Comparator.comparing(times::get));
+      for(Path p: files){ if(total<=maxBytes) break; total-=sizes.get(p); Files.deleteIfExists(p); Files.deleteIfExists(dir.resolve(p.getFileName().toString().replace(".mp4",".used"))); }
+    }
+  }
+}
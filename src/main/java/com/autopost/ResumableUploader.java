@@ -0,0 +1,105 @@
+package com.autopost;
+import com.fasterxml.jackson.databind.JsonNode; import com.fasterxml.jackson.databind.ObjectMapper; import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.*; import java.net.URI; import java.net.http.*; import java.nio.ByteBuffer; import java.nio.channels.FileChannel; import java.nio.file.*;
+import java.time.*; import java.util.*; import java.util.function.Supplier;
+/**
+ * Resumable (session) uploads in the Drive protocol: a POST opens a session, the file then goes up in
+ * DRIVE_UPLOAD_CHUNK_MB (default 16, rounded to 256 KB) PUTs with Content-Range, and after a failure the session is
+ * asked how much it has and the upload continues from there, up to DRIVE_UPLOAD_RETRIES (default 5) failures in a
+ * row. Session URIs are kept in state/upload_sessions.json (keyed by file and metadata) so a later run resumes an
+ * interrupted upload instead of starting over; sessions older than six days (Drive keeps them a week) are dropped.
+ */
+public class ResumableUploader {
+  private static final HttpClient HTTP=HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(20)).build();
+  private static final ObjectMapper M=new ObjectMapper(); static final int QUANTUM=256<<10;
+  private record Progress(long next,JsonNode done){}
+  // the session is gone (expired or unknown): open a new one
+  private static final class SessionGone extends IOException{ SessionGone(String m){ super(m); } }
+  // a 4xx that retrying will not fix
+  private static final class Rejected extends IOException{ Rejected(String m){ super(m); } }
+  private final HttpClient http; private final long chunk; private final int retries; private final Path sessions;
+
+  public ResumableUploader(){ this(HTTP, Long.parseLong(Config.env("DRIVE_UPLOAD_CHUNK_MB","16"))<<20, Integer.parseInt(Config.env("DRIVE_UPLOAD_RETRIES","5")), Paths.get("./state").resolve("upload_sessions.json")); }
+  ResumableUploader(HttpClient http,long chunk,int retries,Path sessions){ this.http=http; this.chunk=Math.max(QUANTUM,chunk/QUANTUM*QUANTUM); this.retries=Math.max(0,retries); this.sessions=sessions; }
+
+  /**
+   * Uploads {@code file} with the JSON {@code metadata} through a session opened at {@code start}.
+   * @param auth supplies the Authorization header per request (tokens may refresh during long uploads); null for none
+   * @return the server's JSON response to the final chunk (e.g. the created file's id)
+   */
+  public JsonNode upload(URI start,Supplier<String> auth,Path file,String contentType,String metadata) throws IOException{
+    long size=Files.size(file); String key=Config.hash(file.toAbsolutePath(),size,Files.getLastModifiedTime(file).toMillis(),start,metadata);
+    URI session=recall(key); long offset=session==null? 0: -1; int failures=0;
+    if(session!=null) System.out.println("Resuming upload of "+file.getFileName());
+    try(var ch=FileChannel.open(file,StandardOpenOption.READ)){
+      while(true){
+        try{
+          if(session==null){ session=open(start,auth,size,contentType,metadata); remember(key,session); offset=0; }
+          Progress p=offset<0? send(session,auth,null,size,0): send(session,auth,ch,size,offset);
+          if(p.done()!=null){ forget(key); return p.done(); }
+          if(offset>=0 && p.next()>offset) failures=0; // a chunk got through
+          offset=p.next();
+        }catch(Rejected e){ forget(key); throw e; }
+        catch(IOException e){
+          if(++failures>retries) throw e;
+          if(e instanceof SessionGone){ forget(key); session=null; }
+          System.err.println("Upload of "+file.getFileName()+" failed ("+e.getMessage()+"); resuming from the last confirmed byte");
+          try{ Thread.sleep(Math.min(8000L,500L<<failures)); }catch(InterruptedException ie){ Thread.currentThread().interrupt(); throw new InterruptedIOException("upload interrupted"); }
+          offset=-1;
+        }
+      }
+    }
+  }
+
+  private URI open(URI start,Supplier<String> auth,long size,String contentType,String metadata) throws IOException{
+    var req=HttpRequest.newBuilder(start).timeout(Duration.ofMinutes(1)).header("Content-Type","application/json; charset=UTF-8")
+      .header("X-Upload-Content-Type",contentType).header("X-Upload-Content-Length",String.valueOf(size)).POST(HttpRequest.BodyPublishers.ofString(metadata));
+    var res=exchange(req,auth);
+    if(res.statusCode()/100!=2) throw failure("Opening upload session",res);
+    return start.resolve(res.headers().firstValue("Location").orElseThrow(()->new IOException("Upload session has no Location")));
+  }
+
+  // One chunk from offset, or (ch == null) an empty status query; either way the session says where it is
+  private Progress send(URI session,Supplier<String> auth,FileChannel ch,long size,long offset) throws IOException{
+    byte[] body=new byte[0]; String range="bytes */"+size;
+    if(ch!=null && size>0){
+      var buf=ByteBuffer.allocate((int)Math.min(chunk,size-offset));
+      while(buf.hasRemaining()){ if(ch.read(buf,offset+buf.position())<0) throw new Rejected("File shrank during upload"); }
+      body=buf.array(); range="bytes "+offset+"-"+(offset+body.length-1)+"/"+size;
+    }
+    var res=exchange(HttpRequest.newBuilder(session).timeout(Duration.ofMinutes(5)).header("Content-Range",range).PUT(HttpRequest.BodyPublishers.ofByteArray(body)),auth);
+    int code=res.statusCode();
+    if(code==200 || code==201) return new Progress(size,res.body()==null||res.body().isBlank()? M.createObjectNode(): M.readTree(res.body()));
+    if(code==308) return new Progress(res.headers().firstValue("Range").map(r->Long.parseLong(r.substring(r.indexOf('-')+1).trim())+1).orElse(0L),null);
+    throw failure("Upload chunk",res);
+  }
+
+  private HttpResponse<String> exchange(HttpRequest.Builder req,Supplier<String> auth) throws IOException{
+    String a=auth==null? null: auth.get(); if(a!=null) req.header("Authorization",a);
+    try{ return http.send(req.build(),HttpResponse.BodyHandlers.ofString()); }
+    catch(InterruptedException e){ Thread.currentThread().interrupt(); throw new InterruptedIOException("upload interrupted"); }
+  }
+  private static IOException failure(String what,HttpResponse<String> res){
+    int code=res.statusCode(); String msg=what+" got HTTP "+code+" "+res.body();
+    if(code==404 || code==410) return new SessionGone(msg);
+    return code/100==4 && code!=408 && code!=429? new Rejected(msg): new IOException(msg);
+  }
+
+  private synchronized URI recall(String key){
+    var e=readSessions().path(key);
+    if(e.isMissingNode() || Instant.parse(e.path("created_at").asText("1970-01-01T00:00:00Z")).isBefore(Instant.now().minus(Duration.ofDays(6)))) return null;
+    return URI.create(e.path("uri").asText());
+  }
+  private synchronized void remember(String key,URI session){ var all=readSessions(); var e=all.putObject(key); e.put("uri",session.toString()); e.put("created_at",Instant.now().toString()); writeSessions(all); }
+  private synchronized void forget(String key){ var all=readSessions(); if(all.remove(key)!=null) writeSessions(all); }
+  private ObjectNode readSessions(){
+    try{ if(Files.exists(sessions)) return (ObjectNode)M.readTree(sessions.toFile()); }catch(IOException|ClassCastException e){ System.err.println("Upload sessions unreadable, starting fresh: "+e.getMessage()); }
+    return M.createObjectNode();
+  }
+  private void writeSessions(ObjectNode all){
+    var cutoff=Instant.now().minus(Duration.ofDays(6));
+    for(var it=all.fields(); it.hasNext();){ try{ if(Instant.parse(it.next().getValue().path("created_at").asText()).isBefore(cutoff)) it.remove(); }catch(RuntimeException e){ it.remove(); } }
+    try{ Config.writeAtomically(sessions,M.writerWithDefaultPrettyPrinter().writeValueAsBytes(all)); }
+    catch(IOException e){ System.err.println("Upload sessions write failed: "+e.getMessage()); }
+  }
+}
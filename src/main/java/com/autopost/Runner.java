@@ -11,18 +11,72 @@ public class Runner {
   private static final ZoneId LONDON = ZoneId.of("Europe/London");
   private static final ObjectMapper M = new ObjectMapper();
 
+  private Config cfg;
+  private DriveService drive;
+  private final SourceCache sources = new SourceCache();
+  private CaptionService captions;
+  private TwitterService twitter;
+  private WebhookPoster webhook;
+
+  /**
+   * One RAW file on its way through the stages; owns its workspace and a pin on its cached source until it is
+   * published or fails. Progress is
+   * checkpointed in a {@link JobState}, so a later run on the same file resumes at the first unfinished stage.
+   */
+  static final class Job {
+    final String fileId;
+    final String fileName;
+    final long fileSize;
+    final String collab;
+    final String handle;
+    String md5;
+    JobState state;
+    boolean outputsReady;
+    Workspace ws;
+    VideoProcessor vp;
+    SourceCache.Lease source;
+    Path src;
+    java.util.List<Double> scenes;
+    boolean cached;
+    java.util.List<VideoProcessor.Segment> segs;
+    final java.util.List<Path> finals = new ArrayList<>();
+    Path teaserOut;
+    String text;
+    String tweetUrl;
+    int uploadedCount;
+
+    Job(Map<String, Object> f) {
+      fileId = String.valueOf(f.get("id"));
+      fileName = String.valueOf(f.get("name"));
+      fileSize = f.get("size") instanceof Number n ? n.longValue() : -1;
+      md5 = f.get("md5Checksum") == null ? null : String.valueOf(f.get("md5Checksum"));
+      // Infer collaborator
+      collab = Utils.parseCollabFromFilename(fileName);
+      handle = Utils.loadCollabHandle(collab);
+    }
+
+    // Closes the workspace and releases the pin on the cached source
+    void release() {
+      if (ws != null) ws.close();
+      if (source != null) source.close();
+    }
+  }
+
+  private void connect() throws Exception {
+    cfg = Config.loadFromEnv();
+    drive = new DriveService(cfg);
+    captions = new CaptionService(cfg);
+    twitter = new TwitterService(cfg);
+    webhook = new WebhookPoster(cfg);
+  }
+
   public void run() throws Exception {
     // Gate by best posting hour if available
     if (!shouldPostNow()) {
       System.out.println("Not in best posting slot now. Skipping.");
       return;
     }
-
-    Config cfg = Config.loadFromEnv();
-    DriveService drive = new DriveService(cfg);
-    CaptionService captions = new CaptionService(cfg);
-    TwitterService twitter = new TwitterService(cfg);
-    WebhookPoster webhook = new WebhookPoster(cfg);
+    connect();
 
     // Find oldest video in RAW
     Map<String, Object> f = drive.listOldestVideo(cfg.rawFolderId());
@@ -30,85 +84,425 @@ public class Runner {
       System.out.println("No videos found in RAW folder. Nothing to do.");
       return;
     }
-    String fileId = String.valueOf(f.get("id"));
-    String fileName = String.valueOf(f.get("name"));
-    System.out.println("Picked RAW file: " + fileName + " (" + fileId + ")");
-
-    // Infer collaborator
-    String collab = Utils.parseCollabFromFilename(fileName);
-    String handle = Utils.loadCollabHandle(collab);
-
-    // Download source
-    Path tmp = Paths.get(System.getProperty("java.io.tmpdir"));
-    Path src = tmp.resolve("source-" + fileId + ".mp4");
-    drive.downloadFile(fileId, src);
-
-    // Process
-    VideoProcessor vp = new VideoProcessor();
-    java.util.List<Path> cuts = vp.makeClips(src); // 3 clips + 1 teaser (last)
-
-    int clipIdx = 0;
-    java.util.List<Path> finals = new ArrayList<>();
-    Path teaserOut = null;
-    for (int i = 0; i < cuts.size(); i++) {
-      Path in = cuts.get(i);
-      boolean isTeaser = in.getFileName().toString().toLowerCase().contains("teaser");
-      String type = isTeaser ? "teaser" : "clip";
-      int index = isTeaser ? 1 : (++clipIdx);
-      String finalName = FilenameUtil.buildName(collab, type, index);
-      Path out1080 = vp.to1080p60(in, finalName);
-      finals.add(out1080);
-      if (isTeaser) teaserOut = out1080;
-    }
-
-    // Generate caption
-    CaptionService.Caption cap = captions.generate(fileName, handle != null ? handle : (collab == null ? "none" : collab));
-    String text = Utils.joinCaption(cap.caption(), cap.hashtags(), handle);
-
-    // Choose a file to post to X: first clip preferred; otherwise teaser
-    Path toPost = finals.stream().filter(p -> p.getFileName().toString().contains("_clip_"))
-        .findFirst().orElse(teaserOut);
-
-    String tweetUrl = null;
-    if (twitter.hasKeys() && toPost != null) {
-      try {
-        tweetUrl = twitter.tweetVideo(text, toPost);
-        System.out.println("Tweeted: " + tweetUrl);
-      } catch (Exception e) {
-        System.err.println("Tweet failed: " + e.getMessage());
+    Job job = new Job(f);
+    System.out.println("Picked RAW file: " + job.fileName + " (" + job.fileId + ")");
+
+    // download() opens the job's workspace (intermediates, outputs; kept for a retry until RAW is archived) and pins the source
+    try (EncodeScheduler sched = new EncodeScheduler()) {
+      download(job, sched.threadsFor(1));
+      analyze(job);
+      encode(job, sched);
+      stageTweetMedia(job);
+      caption(job);
+      publish(job, true);
+      archive(java.util.List.of(job), true);
+    } finally {
+      job.release();
+    }
+  }
+
+  /**
+   * Works through the whole RAW folder, oldest first, as a pipeline: download -> analyze -> encode -> caption ->
+   * upload/archive, each stage on its own workers with BACKLOG_QUEUE (default 2) files queued between stages, so one
+   * file downloads while the previous encodes and the one before uploads. BACKLOG_DOWNLOADERS and BACKLOG_UPLOADERS
+   * (default 1) add workers to those stages; BACKLOG_LIMIT (default 0 = all) caps the files taken. Uploaded files are
+   * archived in Drive batches of DRIVE_BATCH_SIZE, or whatever has gathered every BACKLOG_ARCHIVE_SEC (default 60). Scene analysis gets BACKLOG_ANALYZE_CORES (default a quarter of the
+   * cores) and encodes the rest. Nothing is posted to X in this mode and the posting-slot gate is skipped.
+   */
+  public void runBacklog() throws Exception {
+    connect();
+    int limit = Integer.parseInt(Config.env("BACKLOG_LIMIT", "0"));
+    Iterator<Map<String, Object>> listing = drive.iterateVideos(cfg.rawFolderId());
+    Iterator<Job> jobs = new Iterator<>() {
+      int taken;
+      public boolean hasNext() { return (limit <= 0 || taken < limit) && listing.hasNext(); }
+      public Job next() { taken++; return new Job(listing.next()); }
+    };
+    java.util.concurrent.atomic.AtomicInteger done = new java.util.concurrent.atomic.AtomicInteger();
+    java.util.concurrent.atomic.AtomicInteger failed = new java.util.concurrent.atomic.AtomicInteger();
+    int batchSize = Integer.parseInt(Config.env("DRIVE_BATCH_SIZE", "100"));
+    java.util.List<Job> toArchive = new ArrayList<>();
+    // Uploaded files wait in RAW until archived, so a partial batch is flushed every BACKLOG_ARCHIVE_SEC as well
+    Runnable flush = () -> {
+      java.util.List<Job> batch;
+      synchronized (toArchive) {
+        batch = new ArrayList<>(toArchive);
+        toArchive.clear();
+      }
+      if (!batch.isEmpty()) archive(batch, false);
+    };
+    long flushSec = Math.max(1, Long.parseLong(Config.env("BACKLOG_ARCHIVE_SEC", "60")));
+    java.util.concurrent.ScheduledExecutorService flusher = java.util.concurrent.Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "backlog-archive");
+      t.setDaemon(true);
+      return t;
+    });
+    flusher.scheduleWithFixedDelay(flush, flushSec, flushSec, java.util.concurrent.TimeUnit.SECONDS);
+    // Analysis of the next file runs beside the encode of this one, so the cores are split between them
+    int cores = Runtime.getRuntime().availableProcessors();
+    int analyzeCores = Math.max(1, Math.min(cores - 1, Integer.parseInt(Config.env("BACKLOG_ANALYZE_CORES", String.valueOf(Math.max(1, cores / 4))))));
+    try (EncodeScheduler sched = new EncodeScheduler(Math.max(1, cores - analyzeCores))) {
+      new StagePipeline<Job>(Integer.parseInt(Config.env("BACKLOG_QUEUE", "2")), (job, stage, e) -> {
+        failed.incrementAndGet();
+        System.err.println("Backlog: " + job.fileName + " failed in " + stage + ": " + e.getMessage());
+        job.release();
+      })
+          .stage("download", Integer.parseInt(Config.env("BACKLOG_DOWNLOADERS", "1")), job -> download(job, analyzeCores))
+          .stage("analyze", 1, this::analyze)
+          .stage("encode", 1, job -> encode(job, sched))
+          .stage("caption", 1, this::caption)
+          .stage("upload", Integer.parseInt(Config.env("BACKLOG_UPLOADERS", "1")), job -> {
+            try {
+              publish(job, false);
+            } finally {
+              job.release();
+            }
+            System.out.println("Backlog: done " + done.incrementAndGet() + " (" + job.fileName + ")");
+            boolean full;
+            synchronized (toArchive) {
+              toArchive.add(job);
+              full = toArchive.size() >= batchSize;
+            }
+            if (full) flush.run();
+          })
+          .run(jobs);
+    } finally {
+      flusher.shutdown(); // lets a flush in progress finish
+      flusher.awaitTermination(5, java.util.concurrent.TimeUnit.MINUTES);
+    }
+    flush.run();
+    System.out.println("Backlog finished: " + done.get() + " processed, " + failed.get() + " failed.");
+  }
+
+  // Download source into the source cache (unless it is there already): large files over parallel ranges,
+  // otherwise one stream that scene analysis reads while it is still arriving
+  void download(Job job, int threads) throws Exception {
+    job.state = JobState.open(job.fileId, job.md5);
+    job.ws = Workspace.resume(job.fileId, Workspace.estimate(job.fileSize));
+    job.vp = new VideoProcessor(threads, job.ws);
+    if (job.state.stage() != null) System.out.println("Resuming " + job.fileName + " after " + job.state.stage());
+    // Outputs already uploaded, or still on disk and intact: no need for the source at all
+    if (job.state.done(JobState.Stage.UPLOADED) || (job.state.done(JobState.Stage.ENCODED) && restoreFinals(job))) {
+      job.outputsReady = true;
+      return;
+    }
+    job.scenes = job.md5 == null ? null : job.vp.cachedScenes(job.fileId, job.md5);
+    job.cached = job.scenes != null;
+    job.source = sources.get(job.fileId, job.md5);
+    if (job.source != null) {
+      job.src = job.source.path();
+      System.out.println("Source from cache: " + job.fileName);
+      return;
+    }
+    Path part = sources.reserve(job.fileId);
+    try {
+      boolean verified;
+      if (job.cached) {
+        verified = drive.downloadFile(job.fileId, job.fileSize, job.md5, part);
+      } else {
+        // Scene analysis reads the file as it arrives: the stream, or the contiguous prefix of a ranged download
+        try (StreamingDownload dl = drive.startDownload(job.fileId, job.fileSize, job.md5, part)) {
+          try {
+            job.scenes = job.vp.detectScenes(dl.tail());
+          } catch (Exception e) {
+            System.err.println("Streaming scene analysis failed: " + e.getMessage());
+          }
+          dl.await();
+        }
+        verified = DriveService.verifies(job.fileSize, job.md5);
+      }
+      job.source = sources.put(job.fileId, job.md5, part, verified);
+    } catch (Exception e) {
+      Files.deleteIfExists(part);
+      throw e;
+    }
+    job.src = job.source.path();
+    job.state.complete(JobState.Stage.DOWNLOADED, Map.of(), Map.of());
+  }
+
+  void analyze(Job job) throws Exception {
+    if (job.outputsReady) return;
+    VideoProcessor vp = job.vp;
+    if (job.state.done(JobState.Stage.ANALYZED) && job.state.data("segments").isArray()) {
+      job.segs = new ArrayList<>();
+      for (JsonNode s : job.state.data("segments")) {
+        job.segs.add(new VideoProcessor.Segment(s.get("type").asText(), s.get("index").asInt(), s.get("start").asDouble(), s.get("dur").asDouble()));
       }
+      return;
+    }
+    if (job.md5 == null) {
+      // No Drive checksum: key the scene cache by a local content hash
+      job.md5 = RangedDownloader.md5(job.src);
+      java.util.List<Double> hit = vp.cachedScenes(job.fileId, job.md5);
+      if (hit != null) {
+        job.scenes = hit;
+        job.cached = true;
+      }
+    }
+    if (job.cached) {
+      System.out.println("Scene cuts from cache: " + job.scenes.size());
     } else {
-      System.out.println("Twitter keys missing or no file to post; skipping X posting.");
+      // Not demuxable from a pipe (e.g. moov atom at the end): analyze the complete file instead
+      boolean clean = true;
+      if (job.scenes == null) {
+        try {
+          job.scenes = vp.detectScenes(job.src);
+        } catch (IOException e) {
+          // Fixed cuts for this run only; the next run tries detection again
+          System.err.println("Scene detection failed, using fixed cuts: " + e.getMessage());
+          job.scenes = java.util.List.of();
+          clean = false;
+        }
+      }
+      if (clean) vp.cacheScenes(job.fileId, job.md5, job.scenes);
+    }
+    // 3 clips + 1 teaser (last), starts snapped to source keyframes
+    job.segs = vp.snapToKeyframes(job.src, vp.planSegments(job.scenes));
+    java.util.List<Map<String, Object>> plan = new ArrayList<>();
+    for (VideoProcessor.Segment s : job.segs) {
+      plan.add(Map.of("type", s.type(), "index", s.index(), "start", s.start(), "dur", s.dur()));
     }
+    job.state.complete(JobState.Stage.ANALYZED, Map.of(), Map.of("segments", plan));
+  }
 
-    // Upload outputs to EDITS
-    java.util.List<String> uploaded = new ArrayList<>();
-    for (Path p : finals) {
+  void encode(Job job, EncodeScheduler sched) throws Exception {
+    if (job.outputsReady) return;
+    VideoProcessor vp = job.vp;
+    Path src = job.src;
+    java.util.List<VideoProcessor.Segment> segs = job.segs;
+    java.util.List<Path> finals = job.finals;
+    java.util.List<Rendition> ladder = vp.renditions();
+    String collab = job.collab;
+    java.util.function.Function<VideoProcessor.Segment, String> naming = s -> FilenameUtil.buildName(collab, s.type(), s.index());
+    // Outputs of this source made before (a retry, a re-post) come out of the rendition cache
+    vp.identify(src, job.md5);
+    boolean copy = vp.canCopy(src) && ladder.contains(Rendition.LANDSCAPE_1080);
+    // ENCODE_PRESET=auto picks one preset for everything this job encodes (stream copies cost nothing)
+    vp.planEncode(src, segs.stream().mapToDouble(VideoProcessor.Segment::dur).sum() * (ladder.size() - (copy ? 1 : 0)));
+    if (copy) {
+      // Source already matches the 1080p60 target: remux each segment, no decode or encode; other shapes share one decode
+      java.util.List<Path> copies = vp.copySegments(src, segs, naming);
+      java.util.List<Rendition> rest = ladder.stream().filter(r -> !r.equals(Rendition.LANDSCAPE_1080)).toList();
+      java.util.List<Path> encoded = rest.isEmpty() ? java.util.List.of() : sched.run(() -> vp.withThreads(sched.threadsFor(1)).makeFinals(src, segs, naming, rest));
+      // Keep ladder order so the first listed shape is the one posted
+      for (Rendition r : ladder) {
+        if (r.equals(Rendition.LANDSCAPE_1080)) finals.addAll(copies);
+        else { int k = rest.indexOf(r); finals.addAll(encoded.subList(k * segs.size(), (k + 1) * segs.size())); }
+      }
+    } else if (vp.singlePass()) {
+      // One decode, one encode per output and rendition (scale/pad/fps fused into the cut graph); still a pool job,
+      // so it counts against ENCODE_MAX_JOBS next to other files' encodes
+      finals.addAll(sched.run(() -> vp.withThreads(sched.threadsFor(1)).makeFinals(src, segs, naming)));
+    } else {
+      // One cut + rendition job per segment, run side by side with the cores split between them
+      int threads = sched.threadsFor(segs.size());
+      java.util.List<java.util.concurrent.Callable<java.util.List<Path>>> jobs = new ArrayList<>();
+      double[] cost = new double[segs.size()];
+      for (int i = 0; i < segs.size(); i++) {
+        VideoProcessor.Segment s = segs.get(i);
+        cost[i] = s.dur() * ladder.size();
+        jobs.add(() -> {
+          VideoProcessor w = vp.withThreads(threads);
+          Path cut = w.cut(src, s.start(), s.dur(), s.teaser() ? "teaser.mp4" : "clip_" + s.index() + ".mp4");
+          if (ladder.equals(java.util.List.of(Rendition.LANDSCAPE_1080))) return java.util.List.of(w.to1080p60(cut, naming.apply(s)));
+          return w.makeFinals(cut, java.util.List.of(new VideoProcessor.Segment(s.type(), s.index(), 0, s.dur())), naming, ladder);
+        });
+      }
+      java.util.List<java.util.List<Path>> perSegment = sched.runAll(jobs, cost);
+      // Same order as makeFinals: grouped by rendition, segments in order
+      for (int k = 0; k < ladder.size(); k++) for (java.util.List<Path> outs : perSegment) finals.add(outs.get(k));
+    }
+    job.teaserOut = finals.stream().filter(p -> p.getFileName().toString().contains("_teaser_")).findFirst().orElse(null);
+    exportEncodeStats(vp.tracker().finished());
+    Map<String, Path> outputs = new LinkedHashMap<>();
+    for (int i = 0; i < finals.size(); i++) outputs.put("final" + i, finals.get(i));
+    job.state.complete(JobState.Stage.ENCODED, outputs,
+        Map.of("finals", finals.size(), "renditions", ladder.stream().map(Rendition::name).toList()));
+  }
+
+  // Outputs of an earlier run, if every one is still intact and the ladder has not changed since
+  private boolean restoreFinals(Job job) {
+    java.util.List<String> ladder = job.vp.renditions().stream().map(Rendition::name).toList();
+    java.util.List<String> had = new ArrayList<>();
+    job.state.data("renditions").forEach(n -> had.add(n.asText()));
+    java.util.List<Path> kept = ladder.equals(had) ? job.state.artifacts("final", job.state.data("finals").asInt()) : null;
+    if (kept == null || kept.isEmpty()) return false;
+    job.finals.addAll(kept);
+    job.teaserOut = kept.stream().filter(p -> p.getFileName().toString().contains("_teaser_")).findFirst().orElse(null);
+    System.out.println("Reusing " + kept.size() + " encoded outputs");
+    return true;
+  }
+
+  // Generate caption
+  void caption(Job job) throws Exception {
+    if (job.state.done(JobState.Stage.CAPTIONED)) {
+      job.text = job.state.data("caption").asText();
+      return;
+    }
+    CaptionService.Caption cap = captions.generate(job.fileName, job.handle != null ? job.handle : (job.collab == null ? "none" : job.collab));
+    job.text = Utils.joinCaption(cap.caption(), cap.hashtags(), job.handle);
+    job.state.complete(JobState.Stage.CAPTIONED, Map.of(), Map.of("caption", job.text));
+  }
+
+  // Choose a file to post to X: first clip preferred; otherwise teaser
+  private static Path tweetMedia(Job job) {
+    return job.finals.stream().filter(p -> p.getFileName().toString().contains("_clip_"))
+        .findFirst().orElse(job.teaserOut);
+  }
+
+  // Upload the video to X in the background while the caption is generated; the tweet then reuses its media ID
+  private void stageTweetMedia(Job job) {
+    Path media = tweetMedia(job);
+    if (job.state.done(JobState.Stage.POSTED) || !twitter.hasKeys() || media == null) return;
+    Thread.ofPlatform().name("x-media-stage").daemon().start(() -> {
       try {
-        String id = drive.uploadFile(p, cfg.editsFolderId(), p.getFileName().toString());
-        uploaded.add(id);
-        System.out.println("Uploaded to EDITS: " + p.getFileName());
+        twitter.stageMedia(media);
       } catch (Exception e) {
-        System.err.println("Upload failed for " + p.getFileName() + ": " + e.getMessage());
+        System.err.println("Staging media on X failed, uploading at post time: " + e.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Tweets (once), uploads every output not uploaded yet, then archives RAW. A failed tweet or upload leaves RAW in
+   * place and the job at its last finished stage, so the next run only retries what is missing; the tweet is given
+   * up after JOB_POST_ATTEMPTS (default 3) failed runs.
+   */
+  void publish(Job job, boolean tweet) throws IOException {
+    java.util.List<Path> finals = job.finals;
+    java.util.List<String> failures = new ArrayList<>();
+    String tweetUrl = job.state.data("tweet_url").asText(null);
+    if (tweet && !job.state.done(JobState.Stage.POSTED)) {
+      Path toPost = tweetMedia(job);
+
+      if (twitter.hasKeys() && toPost != null) {
+        try {
+          tweetUrl = twitter.tweetVideo(job.text, toPost);
+          System.out.println("Tweeted: " + tweetUrl);
+          job.state.complete(JobState.Stage.POSTED, Map.of(), Collections.singletonMap("tweet_url", tweetUrl));
+        } catch (Exception e) {
+          int attempts = job.state.data("post_attempts").asInt() + 1;
+          int max = Integer.parseInt(Config.env("JOB_POST_ATTEMPTS", "3"));
+          System.err.println("Tweet failed (attempt " + attempts + " of " + max + "): " + e.getMessage());
+          job.state.put("post_attempts", attempts);
+          if (attempts < max) failures.add("tweet");
+          else job.state.complete(JobState.Stage.POSTED, Map.of(), Map.of());
+        }
+      } else {
+        System.out.println("Twitter keys missing or no file to post; skipping X posting.");
+        job.state.complete(JobState.Stage.POSTED, Map.of(), Map.of());
       }
     }
 
-    // Move RAW into EDITS (archive)
+    // Upload outputs to EDITS, DRIVE_UPLOAD_PARALLEL (default 4) at a time, skipping those an earlier run already uploaded
+    Map<String, String> uploaded = new LinkedHashMap<>();
+    job.state.data("uploads").fields().forEachRemaining(e -> uploaded.put(e.getKey(), e.getValue().asText()));
+    if (!job.state.done(JobState.Stage.UPLOADED)) {
+      java.util.List<Path> pending = finals.stream().filter(p -> !uploaded.containsKey(p.getFileName().toString())).toList();
+      java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(
+          Math.max(1, Math.min(Integer.parseInt(Config.env("DRIVE_UPLOAD_PARALLEL", "4")), pending.size())));
+      try {
+        Map<String, java.util.concurrent.Future<?>> uploads = new LinkedHashMap<>();
+        for (Path p : pending) {
+          String name = p.getFileName().toString();
+          uploads.put(name, pool.submit(() -> {
+            String id = drive.uploadFile(p, cfg.editsFolderId(), name);
+            // Recorded as each one finishes, so a crash never re-uploads a finished file
+            synchronized (uploaded) {
+              uploaded.put(name, id);
+              job.state.put("uploads", uploaded);
+            }
+            System.out.println("Uploaded to EDITS: " + name);
+            return null;
+          }));
+        }
+        for (Map.Entry<String, java.util.concurrent.Future<?>> u : uploads.entrySet()) {
+          String name = u.getKey();
+          try {
+            u.getValue().get();
+          } catch (java.util.concurrent.ExecutionException e) {
+            System.err.println("Upload failed for " + name + ": " + e.getCause().getMessage());
+            failures.add(name);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Uploads interrupted");
+          }
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+      if (failures.isEmpty()) job.state.complete(JobState.Stage.UPLOADED, Map.of(), Map.of());
+    }
+    if (!failures.isEmpty()) {
+      throw new IOException("Not finished (" + String.join(", ", failures) + "); RAW left in place, next run resumes after "
+          + job.state.stage());
+    }
+
+    job.tweetUrl = tweetUrl;
+    job.uploadedCount = uploaded.size();
+    // Uploaded outputs are no longer needed locally; archiving RAW needs only its file ID
+    job.ws.discard();
+  }
+
+  // Move RAW files into EDITS in one batched pass; a file whose move fails stays in RAW and is archived on a later run
+  void archive(java.util.List<Job> jobs, boolean tweet) {
+    Map<String, DriveBatch.Result<Void>> moved;
     try {
-      drive.moveTo(fileId, cfg.editsFolderId());
-      System.out.println("Moved RAW to EDITS.");
+      moved = drive.batch().moveAll(jobs.stream().map(j -> j.fileId).toList(), cfg.editsFolderId());
     } catch (Exception e) {
       System.err.println("Move RAW failed: " + e.getMessage());
+      return;
     }
+    for (Job job : jobs) {
+      DriveBatch.Result<Void> r = moved.get(job.fileId);
+      if (r == null || !r.ok()) {
+        System.err.println("Move RAW failed for " + job.fileName + ": " + (r == null ? "no result" : r.error()));
+        continue;
+      }
+      try {
+        job.state.complete(JobState.Stage.ARCHIVED, Map.of(), Map.of());
+      } catch (IOException e) {
+        System.err.println("Job state write failed: " + e.getMessage());
+      }
+      System.out.println("Moved RAW to EDITS: " + job.fileName);
 
-    // Optional webhook (none configured per user, but keep for future)
+      // Optional webhook (none configured per user, but keep for future)
+      try {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("source", job.fileName);
+        payload.put("uploaded_count", job.uploadedCount);
+        payload.put("tweet", job.tweetUrl);
+        if (!tweet) payload.put("caption", job.text);
+        webhook.post(payload);
+      } catch (Exception ignore) {}
+    }
+  }
+
+  // One line per ffmpeg job in the log, and appended as JSON lines to state/encode_stats.jsonl for later analysis
+  private void exportEncodeStats(java.util.List<FfmpegRun.Result> results) {
+    StringBuilder lines = new StringBuilder();
+    for (FfmpegRun.Result r : results) {
+      System.out.println(String.format(Locale.ROOT, "Encoded %s in %.1fs (%.2fx realtime, %.0f fps, %d frames)",
+          r.label(), r.wallSec(), r.speed(), r.fps(), r.frames()));
+      try {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("at", Instant.now().toString());
+        row.put("label", r.label());
+        row.put("wall_sec", r.wallSec());
+        row.put("out_sec", r.outSec());
+        row.put("speed", r.speed());
+        row.put("fps", r.fps());
+        row.put("frames", r.frames());
+        lines.append(M.writeValueAsString(row)).append('\n');
+      } catch (Exception ignore) {}
+    }
     try {
-      Map<String, Object> payload = new LinkedHashMap<>();
-      payload.put("source", fileName);
-      payload.put("uploaded_count", uploaded.size());
-      payload.put("tweet", tweetUrl);
-      webhook.post(payload);
-    } catch (Exception ignore) {}
+      Path stats = Paths.get("./state").resolve("encode_stats.jsonl");
+      Files.createDirectories(stats.getParent());
+      Files.writeString(stats, lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      System.err.println("Encode stats write failed: " + e.getMessage());
+    }
   }
 
   private boolean shouldPostNow() {
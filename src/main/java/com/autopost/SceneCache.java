@@ -0,0 +1,47 @@
+package com.autopost;
+import java.io.*; import java.nio.file.*; import java.nio.file.attribute.FileTime;
+import java.util.*;
+/**
+ * Scene-cut cache under state/scene_cache so retries of a failed run skip the full-resolution scene pass. Entries are
+ * keyed by source identity (Drive file ID + md5Checksum, or a local content hash) plus the detection settings, and
+ * hold the cut timestamps as varint-encoded millisecond deltas (a few bytes per cut). Reads refresh an entry's mtime;
+ * writes evict least recently used entries until the directory fits SCENE_CACHE_MAX_KB (default 1024).
+ */
+public class SceneCache {
+  private final Path dir; private final long maxBytes;
+  public SceneCache(){ this(Paths.get("./state").resolve("scene_cache"), Long.parseLong(Config.env("SCENE_CACHE_MAX_KB","1024"))<<10); }
+  SceneCache(Path dir,long maxBytes){ this.dir=dir; this.maxBytes=maxBytes; }
+
+  /** Cached cuts for the key, or null on a miss or an unreadable entry. */
+  public List<Double> get(String key){
+    Path f=dir.resolve(key+".cuts"); if(!Files.exists(f)) return null;
+    try(var in=new DataInputStream(new BufferedInputStream(Files.newInputStream(f)))){
+      int n=(int)readVarint(in); var out=new ArrayList<Double>(n); long ms=0;
+      for(int i=0;i<n;i++){ ms+=readVarint(in); out.add(ms/1000.0); }
+      Files.setLastModifiedTime(f,FileTime.fromMillis(System.currentTimeMillis())); return out;
+    }catch(IOException e){ return null; }
+  }
+
+  public void put(String key,List<Double> cuts){
+    try{
+      Files.createDirectories(dir); var bytes=new ByteArrayOutputStream(); writeVarint(bytes,cuts.size()); long prev=0;
+      for(double c: cuts){ long ms=Math.max(prev,Math.round(c*1000)); writeVarint(bytes,ms-prev); prev=ms; }
+      Config.writeAtomically(dir.resolve(key+".cuts"),bytes.toByteArray());
+      evict();
+    }catch(IOException e){ System.err.println("Scene cache write failed: "+e.getMessage()); }
+  }
+
+  private void evict() throws IOException{
+    List<Path> files; try(var s=Files.list(dir)){ files=new ArrayList<>(s.filter(p->p.toString().endsWith(".cuts")).toList()); }
+    long total=0; for(Path p: files) total+=Files.size(p);
+    if(total<=maxBytes) return;
+    files.sort(Comparator.comparing(p->{ try{ return Files.getLastModifiedTime(p); }catch(IOException e){ return FileTime.fromMillis(0); } }));
+    for(Path p: files){ if(total<=maxBytes) break; total-=Files.size(p); Files.deleteIfExists(p); }
+  }
+
+  static void writeVarint(OutputStream out,long v) throws IOException{ while((v&~0x7FL)!=0){ out.write((int)((v&0x7F)|0x80)); v>>>=7; } out.write((int)v); }
+  static long readVarint(InputStream in) throws IOException{
+    long v=0; for(int shift=0; shift<64; shift+=7){ int b=in.read(); if(b<0) throw new EOFException(); v|=(long)(b&0x7F)<<shift; if((b&0x80)==0) return v; }
+    throw new IOException("Malformed varint");
+  }
+}
@@ -0,0 +1,34 @@
+package com.autopost;
+import java.io.*; import java.util.*;
+/**
+ * Pulls frame timestamps out of ffprobe's compact -show_frames output straight from the process stream: one reused
+ * byte buffer, no per-line Strings. Takes the first {@code pts_time=} value on each line, which matches both the
+ * legacy {@code pkt_pts_time=} field and the newer {@code pts_time=} one; {@code N/A} values are skipped.
+ */
+final class ScenePtsParser {
+  private static final byte[] KEY="pts_time=".getBytes();
+  private ScenePtsParser(){}
+
+  /** Reads until EOF or until {@code limit} timestamps were found (limit <= 0: no limit). */
+  static List<Double> parse(InputStream in,int limit) throws IOException{
+    var out=new ArrayList<Double>(); byte[] buf=new byte[1<<16]; int n, matched=0; boolean taken=false, inValue=false, neg=false, frac=false, digits=false; long whole=0, part=0, scale=1;
+    while((n=in.read(buf))>=0){
+      for(int i=0;i<n;i++){
+        byte b=buf[i];
+        if(inValue){
+          if(b>='0'&&b<='9'){ digits=true; if(frac){ if(scale<1_000_000_000L){ part=part*10+(b-'0'); scale*=10; } } else whole=whole*10+(b-'0'); continue; }
+          if(b=='.'&&!frac){ frac=true; continue; }
+          if(b=='-'&&!digits&&!neg){ neg=true; continue; }
+          inValue=false;
+          if(digits && (b=='|'||b=='\n'||b=='\r'||b==' ')){ double v=whole+(double)part/scale; out.add(neg? -v: v); if(limit>0 && out.size()>=limit) return out; }
+        }
+        if(b=='\n'){ taken=false; matched=0; continue; }
+        if(taken) continue;
+        if(b==KEY[matched]){ if(++matched==KEY.length){ matched=0; taken=true; inValue=true; neg=false; frac=false; digits=false; whole=0; part=0; scale=1; } }
+        else matched=b==KEY[0]? 1: 0;
+      }
+    }
+    if(inValue && digits){ double v=whole+(double)part/scale; out.add(neg? -v: v); }
+    return out;
+  }
+}
@@ -0,0 +1,45 @@
+package com.autopost;
+import java.util.*; import java.util.concurrent.*; import java.util.function.Consumer;
+/**
+ * Time-sharded scene analysis for long sources: the timeline is split into K ranges (each overlapping the previous
+ * one so a cut on a boundary isn't lost to the first-frame blind spot), every range is analysed by its own ffmpeg/
+ * ffprobe using input-side seeking, and the cut lists are merged. Only cuts within the overlap of a range boundary can
+ * be seen twice, so only those are de-duplicated; quick cuts elsewhere are kept. Ranges are collected in time order;
+ * once the merged list has {@code limit} cuts the later ranges are killed.
+ */
+final class SceneShards {
+  /** Detects cuts (absolute source times) within [from, from+span); reports each process it starts so it can be killed. */
+  interface RangeDetector { List<Double> detect(double from,double span,Consumer<Process> started) throws Exception; }
+  static final double DEDUPE_SEC=0.5;
+  private SceneShards(){}
+
+  static List<Double> detect(RangeDetector d,double duration,int shards,double overlap,int limit) throws Exception{
+    double len=duration/shards; Set<Process> live=ConcurrentHashMap.newKeySet();
+    var pool=Executors.newFixedThreadPool(shards, r->{ var t=new Thread(r,"scene-shard"); t.setDaemon(true); return t; });
+    try{
+      var futures=new ArrayList<Future<List<Double>>>();
+      for(int i=0;i<shards;i++){ double from=Math.max(0,i*len-overlap), span=len+(i>0? overlap: 0); futures.add(pool.submit(()->d.detect(from,span,live::add))); }
+      var boundaries=new ArrayList<Double>(); for(int i=1;i<shards;i++) boundaries.add(i*len);
+      var all=new ArrayList<Double>(); List<Double> merged=List.of();
+      for(var f: futures){
+        try{ all.addAll(f.get()); }catch(ExecutionException e){ throw e.getCause() instanceof Exception ex? ex: e; }
+        merged=merge(all,boundaries,overlap); if(limit>0 && merged.size()>=limit) break;
+      }
+      return limit>0 && merged.size()>limit? merged.subList(0,limit): merged;
+    }finally{ live.forEach(Process::destroyForcibly); pool.shutdownNow(); }
+  }
+
+  /**
+   * Sorted cuts; a cut closer than DEDUPE_SEC to the previous kept one is dropped as the neighbouring range's copy of
+   * it, but only when both lie within {@code overlap} of a range boundary.
+   */
+  static List<Double> merge(Collection<Double> cuts,List<Double> boundaries,double overlap){
+    var sorted=new ArrayList<>(cuts); Collections.sort(sorted); var out=new ArrayList<Double>();
+    for(double c: sorted){
+      double last=out.isEmpty()? Double.NaN: out.get(out.size()-1);
+      if(!out.isEmpty() && c-last<DEDUPE_SEC && boundaries.stream().anyMatch(b->Math.abs(c-b)<=overlap && Math.abs(last-b)<=overlap)) continue;
+      out.add(c);
+    }
+    return out;
+  }
+}
@@ -0,0 +1,133 @@
+package com.autopost;
+import com.fasterxml.jackson.databind.JsonNode; import com.fasterxml.jackson.databind.ObjectMapper; import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.*; import java.nio.file.*; import java.nio.file.attribute.FileTime; import java.time.*; import java.util.*;
+/**
+ * Downloaded RAW sources under state/source_cache, keyed by Drive file ID and md5Checksum, so a retry or another pass
+ * over the same file never downloads it again. A download is admitted only if it matches its md5 (hashed here unless
+ * the download already verified it); a read checks size and mtime against what was recorded (hashing the file again if
+ * the mtime moved) and drops an entry that no longer matches. Entries in use are pinned (one pin file per process,
+ * ignored once that process is gone) and never evicted; the rest go least recently used first while the cache is over
+ * SOURCE_CACHE_MAX_GB (default 50; 0 turns it off), each counted and removed together with its {@link KeyframeIndex}
+ * sidecar.
+ */
+public final class SourceCache {
+  /** A pinned entry, or for a source that cannot be cached (no checksum, cache off) the downloaded file itself. */
+  public final class Lease implements AutoCloseable {
+    private final String key; private final Path path; private boolean closed;
+    private Lease(String key,Path path){ this.key=key; this.path=path; }
+    public Path path(){ return path; }
+    /** Releases the pin; an uncached download is deleted. */
+    @Override public void close(){
+      synchronized(this){ if(closed) return; closed=true; }
+      if(key!=null) unpin(key);
+      else try{ Files.deleteIfExists(path); }catch(IOException e){ System.err.println("Could not delete "+path+": "+e.getMessage()); }
+    }
+  }
+  private static final ObjectMapper M=new ObjectMapper(); private static final long PID=ProcessHandle.current().pid();
+  // Pins held in this process, per pin file; the file exists while the count is above zero
+  private static final Map<Path,Integer> PINS=new HashMap<>();
+  private final Path dir; private final long maxBytes;
+
+  public SourceCache(){ this(Paths.get("./state").resolve("source_cache"), (long)(Double.parseDouble(Config.env("SOURCE_CACHE_MAX_GB","50"))*(1L<<30))); }
+  SourceCache(Path dir,long maxBytes){ this.dir=dir; this.maxBytes=maxBytes; }
+
+  /** The cached source, pinned until the lease is closed, or null on a miss or an entry that failed its check. */
+  public Lease get(String fileId,String md5){
+    if(md5==null || maxBytes<=0) return null;
+    String key=Config.hash(fileId,md5); Path f=dir.resolve(key+".mp4"), meta=dir.resolve(key+".json");
+    synchronized(PINS){ if(!Files.isRegularFile(f) || !Files.isRegularFile(meta)) return null; pin(key); }
+    try{
+      JsonNode m=M.readTree(meta.toFile()); long size=Files.size(f), mtime=Files.getLastModifiedTime(f).toMillis();
+      if(size==m.path("size").asLong() && (mtime==m.path("mtime").asLong() || RangedDownloader.md5(f).equalsIgnoreCase(md5))){
+        writeMeta(meta,fileId,md5,size,mtime); // also marks it recently used
+        return new Lease(key,f);
+      }
+      System.err.println("Cached source for "+fileId+" no longer matches, dropping it");
+    }catch(IOException|RuntimeException e){ System.err.println("Cached source for "+fileId+" unreadable, dropping it: "+e.getMessage()); }
+    unpin(key); drop(key); return null;
+  }
+
+  /** A fresh file in the cache's directory to download into, so {@link #put} only has to rename it. */
+  public Path reserve(String fileId) throws IOException{
+    Files.createDirectories(dir); return Files.createTempFile(dir,fileId.replaceAll("[^A-Za-z0-9_-]","_")+"-",".part");
+  }
+
+  /** Admits a downloaded file (moved in) once it matches {@code md5}, and returns it pinned. */
+  public Lease put(String fileId,String md5,Path file) throws IOException{ return put(fileId,md5,file,false); }
+  /** Same, without hashing the file again when {@code verified} (the download already checked it against {@code md5}). */
+  public Lease put(String fileId,String md5,Path file,boolean verified) throws IOException{
+    if(md5==null || maxBytes<=0) return new Lease(null,file);
+    if(!verified && !RangedDownloader.md5(file).equalsIgnoreCase(md5)){ Files.deleteIfExists(file); throw new IOException("Download of "+fileId+" does not match its md5Checksum"); }
+    String key=Config.hash(fileId,md5); Path f=dir.resolve(key+".mp4"), meta=dir.resolve(key+".json");
+    Files.createDirectories(dir);
+    synchronized(PINS){
+      pin(key); Files.deleteIfExists(meta);
+      try{ Files.move(file,f,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE); }
+      catch(AtomicMoveNotSupportedException e){ Files.move(file,f,StandardCopyOption.REPLACE_EXISTING); } // e.g. from another file system
+      writeMeta(meta,fileId,md5,Files.size(f),Files.getLastModifiedTime(f).toMillis());
+    }
+    evict();
+    return new Lease(key,f);
+  }
+
+  private void pin(String key){
+    synchronized(PINS){
+      Path p=dir.resolve(key+".pin-"+PID); int n=PINS.merge(p,1,Integer::sum);
+      if(n==1) try{ Files.createDirectories(dir); Files.writeString(p,""); }catch(IOException e){ System.err.println("Source pin failed: "+e.getMessage()); }
+    }
+  }
+  private void unpin(String key){
+    synchronized(PINS){
+      Path p=dir.resolve(key+".pin-"+PID); Integer n=PINS.computeIfPresent(p,(k,v)->v>1? v-1: null);
+      if(n==null) try{ Files.deleteIfExists(p); }catch(IOException e){ System.err.println("Source unpin failed: "+e.getMessage()); }
+    }
+  }
+  // Pinned by this process or by another that is still running
+  private boolean pinned(String key,List<Path> pinFiles){
+    boolean any=false;
+    for(Path p: pinFiles){
+      String n=p.getFileName().toString(); if(!n.startsWith(key+".pin-")) continue;
+      long pid; try{ pid=Long.parseLong(n.substring(n.lastIndexOf('-')+1)); }catch(NumberFormatException e){ continue; }
+      if(pid==PID? PINS.containsKey(p): ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) any=true;
+      else try{ Files.deleteIfExists(p); }catch(IOException ignored){}
+    }
+    return any;
+  }
+
+  private void evict(){
+    synchronized(PINS){
+      try{
+        List<Path> all; try(var s=Files.list(dir)){ all=s.toList(); }
+        var pinFiles=all.stream().filter(p->p.getFileName().toString().contains(".pin-")).toList();
+        var entries=new ArrayList<Path>(); var used=new HashMap<Path,FileTime>(); var sizes=new HashMap<Path,Long>(); long total=0;
+        Instant stale=Instant.now().minus(Duration.ofDays(1));
+        for(Path p: all){
+          String n=p.getFileName().toString();
+          try{
+            if(n.endsWith(".part") && Files.getLastModifiedTime(p).toInstant().isBefore(stale)) Files.deleteIfExists(p); // abandoned download
+            if(!n.endsWith(".mp4")) continue;
+            Path meta=dir.resolve(n.replace(".mp4",".json")), kfi=dir.resolve(n+".kfi");
+            long size=Files.size(p)+(Files.exists(kfi)? Files.size(kfi): 0);
+            used.put(p,Files.exists(meta)? Files.getLastModifiedTime(meta): FileTime.fromMillis(0)); sizes.put(p,size); entries.add(p); total+=size;
+          }catch(NoSuchFileException e){ /* renamed or dropped meanwhile */ }
+        }
+        if(total<=maxBytes) return;
+        entries.sort(Comparator.comparing(used::get));
+        for(Path p: entries){
+          if(total<=maxBytes) break;
+          String key=p.getFileName().toString().replace(".mp4","");
+          if(pinned(key,pinFiles)) continue;
+          total-=sizes.get(p); drop(key);
+        }
+      }catch(IOException e){ System.err.println("Source cache eviction failed: "+e.getMessage()); }
+    }
+  }
+  private void drop(String key){
+    try{ Files.deleteIfExists(dir.resolve(key+".json")); Files.deleteIfExists(dir.resolve(key+".mp4")); Files.deleteIfExists(dir.resolve(key+".mp4.kfi")); }
+    catch(IOException e){ System.err.println("Source cache cleanup failed: "+e.getMessage()); }
+  }
+  private void writeMeta(Path meta,String fileId,String md5,long size,long mtime) throws IOException{
+    ObjectNode m=M.createObjectNode(); m.put("file_id",fileId); m.put("md5",md5); m.put("size",size); m.put("mtime",mtime);
+    Config.writeAtomically(meta,M.writeValueAsBytes(m));
+  }
+}
@@ -0,0 +1,60 @@
+package com.autopost;
+import java.util.*; import java.util.concurrent.*; import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * Items flow through named stages, each with its own worker threads, connected by bounded queues: a full queue
+ * blocks the stage before it, so at most {@code capacity} items wait between two stages while every stage works on
+ * a different item. An item whose stage throws is handed to the failure handler and goes no further; nothing a stage
+ * or the handler throws stops a worker, so the stages before it never block on a queue nobody takes from.
+ */
+public final class StagePipeline<T> {
+  public interface Stage<T>{ void apply(T item) throws Exception; }
+  public interface Failure<T>{ void failed(T item,String stage,Exception e); }
+  private record Step<T>(String name,int workers,Stage<T> fn){}
+  private static final Object END=new Object();
+  private final int capacity; private final Failure<T> onFailure; private final List<Step<T>> steps=new ArrayList<>();
+
+  public StagePipeline(int capacity,Failure<T> onFailure){ this.capacity=Math.max(1,capacity); this.onFailure=onFailure; }
+
+  public StagePipeline<T> stage(String name,int workers,Stage<T> fn){ steps.add(new Step<>(name,Math.max(1,workers),fn)); return this; }
+
+  /** Feeds {@code source} (read lazily, on its own thread) through all stages; returns when everything has drained. */
+  public void run(Iterator<? extends T> source) throws InterruptedException{
+    if(steps.isEmpty()) throw new IllegalStateException("pipeline has no stages");
+    // One queue in front of each stage (the first fed by the source); the last stage's output goes nowhere
+    var queues=new ArrayList<BlockingQueue<Object>>(); for(int i=0;i<steps.size();i++) queues.add(new ArrayBlockingQueue<>(capacity));
+    var threads=new ArrayList<Thread>();
+    threads.add(Thread.ofPlatform().name("stage-source").daemon().start(()->{
+      try{ while(source.hasNext()) queues.get(0).put(source.next()); }
+      catch(InterruptedException e){ Thread.currentThread().interrupt(); }
+      catch(RuntimeException e){ System.err.println("Backlog listing failed: "+e.getMessage()); }
+      finally{ putQuietly(queues.get(0),END); }
+    }));
+    for(int i=0;i<steps.size();i++){
+      var step=steps.get(i); var in=queues.get(i); var out=i+1<steps.size()? queues.get(i+1): null; var live=new AtomicInteger(step.workers());
+      for(int w=0;w<step.workers();w++) threads.add(Thread.ofPlatform().name("stage-"+step.name()+"-"+(w+1)).daemon().start(()->{
+        try{
+          while(true){
+            Object o=in.take();
+            if(o==END){ in.put(END); break; } // let sibling workers see it too
+            @SuppressWarnings("unchecked") T item=(T)o;
+            try{ step.fn().apply(item); }
+            catch(Throwable t){ failed(item,step.name(),t); continue; }
+            if(out!=null) out.put(item);
+          }
+        }catch(InterruptedException e){ Thread.currentThread().interrupt(); }
+        finally{ if(live.decrementAndGet()==0 && out!=null) putQuietly(out,END); }
+      }));
+    }
+    try{ for(var t: threads) t.join(); }
+    catch(InterruptedException e){ threads.forEach(Thread::interrupt); throw e; }
+  }
+
+  private void failed(T item,String stage,Throwable t){
+    try{ onFailure.failed(item,stage,t instanceof Exception e? e: new ExecutionException(t)); }
+    catch(Throwable h){ System.err.println("Failure handler for stage "+stage+" threw: "+h); }
+  }
+
+  private static void putQuietly(BlockingQueue<Object> q,Object o){
+    try{ q.put(o); }catch(InterruptedException e){ Thread.currentThread().interrupt(); }
+  }
+}
@@ -0,0 +1,26 @@
+package com.autopost;
+import com.fasterxml.jackson.databind.ObjectMapper; import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.*; import java.nio.file.*;
+/**
+ * Measured stage durations in seconds (download, encode, caption, ...) as exponential moving averages in
+ * state/stage_timings.json, so render-ahead can start preparing a post as late as safely possible.
+ */
+public final class StageTimings {
+  private static final ObjectMapper M=new ObjectMapper(); private static final double ALPHA=0.3;
+  private final Path file; private final ObjectNode avg;
+  public StageTimings(){ this(Paths.get("./state").resolve("stage_timings.json")); }
+  StageTimings(Path file){
+    this.file=file; ObjectNode n=null;
+    try{ if(Files.exists(file)) n=(ObjectNode)M.readTree(file.toFile()); }catch(IOException|ClassCastException e){ System.err.println("Stage timings unreadable, starting fresh: "+e.getMessage()); }
+    avg=n==null? M.createObjectNode(): n;
+  }
+
+  public synchronized void record(String stage,double sec){
+    if(!(sec>=0)) return;
+    avg.put(stage,avg.has(stage)? (1-ALPHA)*avg.get(stage).asDouble()+ALPHA*sec: sec);
+    try{ Config.writeAtomically(file,M.writerWithDefaultPrettyPrinter().writeValueAsBytes(avg)); }
+    catch(IOException e){ System.err.println("Stage timings write failed: "+e.getMessage()); }
+  }
+  /** Average for {@code stage}, or {@code fallback} until it has been measured. */
+  public synchronized double get(String stage,double fallback){ return avg.has(stage)? avg.get(stage).asDouble(): fallback; }
+}
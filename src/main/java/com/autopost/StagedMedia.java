@@ -0,0 +1,71 @@
+package com.autopost;
+import com.fasterxml.jackson.databind.ObjectMapper; import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.*; import java.nio.file.*; import java.time.*; import java.util.*; import java.util.concurrent.*;
+/**
+ * Videos uploaded to X ahead of the post that uses them, so the post itself is a single status update.
+ * state/x_media.json maps each file (path, size, mtime) to its media ID and expiry; X keeps uploaded media for
+ * X_MEDIA_TTL_HOURS (default 24), and an ID with less than X_MEDIA_REFRESH_MIN (default 60) left before it is needed
+ * is uploaded again.
+ */
+public final class StagedMedia {
+  public interface Uploader<E extends Exception>{ long upload(Path media) throws E; }
+  private static final ObjectMapper M=new ObjectMapper();
+  // Every instance in the process (CLI runner, server) reads and writes the file under this lock, and an upload in
+  // progress for a file is joined rather than repeated; the upload itself runs outside the lock
+  private static final Object LOCK=new Object(); private static final Map<String,CompletableFuture<Long>> IN_FLIGHT=new ConcurrentHashMap<>();
+  private final Path file; private final Duration ttl, refresh;
+  public StagedMedia(){ this(Paths.get("./state").resolve("x_media.json"), Duration.ofHours(Long.parseLong(Config.env("X_MEDIA_TTL_HOURS","24"))), Duration.ofMinutes(Long.parseLong(Config.env("X_MEDIA_REFRESH_MIN","60")))); }
+  StagedMedia(Path file,Duration ttl,Duration refresh){ this.file=file; this.ttl=ttl; this.refresh=refresh; }
+
+  /** How long ahead of a post an upload can happen and still be usable for it. */
+  public Duration usableFor(){ return ttl.minus(refresh); }
+
+  /** Whether {@code media} has an ID that stays valid (with the refresh margin) until {@code until}. */
+  public boolean freshUntil(Path media,Instant until){ String k=key(media); synchronized(LOCK){ return stored(load(),k,until)!=null; } }
+
+  /** An ID for {@code media} valid until {@code until}: the staged one, or a new upload recorded for next time. */
+  public <E extends Exception> long mediaIdFor(Path media,Instant until,Uploader<E> up) throws E{
+    String k=key(media);
+    while(true){
+      var mine=new CompletableFuture<Long>(); CompletableFuture<Long> other;
+      synchronized(LOCK){ Long id=stored(load(),k,until); if(id!=null) return id; other=IN_FLIGHT.putIfAbsent(k,mine); }
+      if(other!=null){ try{ other.join(); }catch(RuntimeException e){ /* that upload failed: try our own */ } continue; }
+      try{
+        long t0=System.nanoTime(); long id=up.upload(media); Instant now=Instant.now();
+        synchronized(LOCK){
+          var ids=load(); var e=ids.putObject(k); e.put("path",media.toAbsolutePath().toString()); e.put("media_id",id); e.put("uploaded_at",now.toString()); e.put("expires_at",now.plus(ttl).toString());
+          save(ids);
+        }
+        System.out.println(String.format(Locale.ROOT,"Staged %s on X as media %d in %.1fs",media.getFileName(),id,(System.nanoTime()-t0)/1e9));
+        mine.complete(id); return id;
+      }catch(Throwable t){ mine.completeExceptionally(t); throw t; }
+      finally{ IN_FLIGHT.remove(k,mine); }
+    }
+  }
+
+  /** Drops the ID once a post has used it. */
+  public void forget(Path media){ String k=key(media); synchronized(LOCK){ var ids=load(); if(ids.remove(k)!=null) save(ids); } }
+
+  private Long stored(ObjectNode ids,String key,Instant until){
+    var e=ids.get(key); if(e==null) return null;
+    try{ return Instant.parse(e.path("expires_at").asText()).minus(refresh).isAfter(until)? e.path("media_id").asLong(): null; }
+    catch(RuntimeException ex){ return null; }
+  }
+  private static String key(Path media){
+    Path p=media.toAbsolutePath();
+    try{ return Config.hash(p,Files.size(p),Files.getLastModifiedTime(p).toMillis()); }catch(IOException e){ return Config.hash(p); }
+  }
+  // Read fresh for every change, so entries another instance (or process) wrote since are kept, not overwritten
+  private ObjectNode load(){
+    try{ if(Files.exists(file)) return (ObjectNode)M.readTree(file.toFile()); }
+    catch(IOException|ClassCastException e){ System.err.println("Staged media state unreadable, starting fresh: "+e.getMessage()); }
+    return M.createObjectNode();
+  }
+  private void save(ObjectNode ids){
+    var now=Instant.now();
+    for(var it=ids.fields(); it.hasNext();){ var e=it.next();
+      try{ if(Instant.parse(e.getValue().path("expires_at").asText()).isBefore(now)) it.remove(); }catch(RuntimeException ex){ it.remove(); } }
+    try{ Config.writeAtomically(file,M.writerWithDefaultPrettyPrinter().writeValueAsBytes(ids)); }
+    catch(IOException e){ System.err.println("Staged media state write failed: "+e.getMessage()); }
+  }
+}
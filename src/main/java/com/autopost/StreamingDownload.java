@@ -0,0 +1,61 @@
+package com.autopost;
+import java.io.*; import java.nio.ByteBuffer; import java.nio.channels.FileChannel; import java.nio.file.*; import java.util.concurrent.*; import java.util.function.LongConsumer;
+/**
+ * Copies a remote media stream straight to disk through a FileChannel with one fixed-size buffer (never the whole
+ * file on the heap). The copy runs on its own thread so callers can start reading the file while it is still
+ * growing via {@link #tail()}, e.g. to pipe it into ffprobe, and {@link #await()} when they need the complete file.
+ * Any other filler that reports its complete prefix (a {@link RangedDownloader}) can be followed the same way.
+ */
+public class StreamingDownload implements AutoCloseable {
+  /** Writes {@code dest}, reporting the length of its complete prefix as it grows. */
+  public interface Fill{ void run(LongConsumer prefix) throws Exception; }
+  static final int BUFFER=Integer.parseInt(Config.env("DOWNLOAD_BUFFER_BYTES", String.valueOf(1<<20)));
+  private final Path dest; private final CompletableFuture<Long> done=new CompletableFuture<>(); private volatile long written; private final Thread worker;
+
+  public static StreamingDownload start(Callable<InputStream> source,Path dest) throws IOException{ return new StreamingDownload(dest,prefix->copy(source,dest,prefix)); }
+  /** Runs {@code fill} on its own thread; {@link #tail()} follows the prefix it reports. */
+  public static StreamingDownload fill(Path dest,Fill fill) throws IOException{ return new StreamingDownload(dest,fill); }
+  private StreamingDownload(Path dest,Fill fill) throws IOException{
+    this.dest=dest; Files.newByteChannel(dest,StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING).close();
+    worker=new Thread(()->{ try{ fill.run(this::advance); done.complete(written); }catch(Throwable t){ done.completeExceptionally(t); } synchronized(this){ notifyAll(); } },"download-"+dest.getFileName());
+    worker.setDaemon(true); worker.start();
+  }
+  private static void copy(Callable<InputStream> source,Path dest,LongConsumer prefix) throws Exception{
+    try(InputStream in=source.call(); FileChannel out=FileChannel.open(dest,StandardOpenOption.WRITE)){
+      byte[] buf=new byte[BUFFER]; var bb=ByteBuffer.wrap(buf); int n; long total=0;
+      while((n=in.read(buf))>=0){
+        if(Thread.currentThread().isInterrupted()) throw new InterruptedIOException("download cancelled");
+        bb.clear().limit(n); while(bb.hasRemaining()) out.write(bb);
+        prefix.accept(total+=n);
+      }
+    }
+  }
+  private synchronized void advance(long prefix){ if(prefix>written){ written=prefix; notifyAll(); } }
+  public Path path(){ return dest; }
+  public long written(){ return written; }
+  public boolean isDone(){ return done.isDone(); }
+  /** Blocks until the file is complete; rethrows the download failure, if any. */
+  public Path await() throws IOException{
+    try{ done.get(); return dest; }
+    catch(InterruptedException e){ Thread.currentThread().interrupt(); throw new InterruptedIOException("interrupted waiting for "+dest); }
+    catch(ExecutionException e){ throw e.getCause() instanceof IOException io? io: new IOException("Download failed: "+e.getCause().getMessage(), e.getCause()); }
+  }
+  /** Reads the file as it grows: blocks for more bytes until the download finishes, then reports EOF. */
+  public InputStream tail() throws IOException{
+    var ch=FileChannel.open(dest,StandardOpenOption.READ);
+    return new InputStream(){
+      private long pos;
+      @Override public int read() throws IOException{ byte[] b=new byte[1]; int n=read(b,0,1); return n<0? -1: b[0]&0xff; }
+      @Override public int read(byte[] b,int off,int len) throws IOException{
+        if(len==0) return 0;
+        synchronized(StreamingDownload.this){
+          while(pos>=written && !done.isDone()){ try{ StreamingDownload.this.wait(1000); }catch(InterruptedException e){ Thread.currentThread().interrupt(); throw new InterruptedIOException(); } }
+          if(pos>=written){ if(done.isCompletedExceptionally()) throw new IOException("Download failed for "+dest); return -1; }
+        }
+        int n=ch.read(ByteBuffer.wrap(b,off,(int)Math.min(len,written-pos)),pos); if(n>0) pos+=n; return n;
+      }
+      @Override public void close() throws IOException{ ch.close(); }
+    };
+  }
+  @Override public void close(){ if(!done.isDone()) worker.interrupt(); }
+}
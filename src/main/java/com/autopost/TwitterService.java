@@ -1,16 +1,35 @@
 package com.autopost;
-import twitter4j.*; import twitter4j.auth.AccessToken; import java.nio.file.Path;
+import twitter4j.*; import twitter4j.conf.ConfigurationBuilder; import java.nio.file.Path; import java.time.Instant;
 public class TwitterService {
-  private final Config cfg; public TwitterService(Config cfg){ this.cfg=cfg; }
+  private final Config cfg; private final StagedMedia staged; private final XMediaUploader uploader; private Twitter twitter;
+  public TwitterService(Config cfg){
+    this.cfg=cfg; this.staged=new StagedMedia();
+    this.uploader=new XMediaUploader(new XMediaUploader.Credentials(cfg.twApiKey(), cfg.twApiSecret(), cfg.twAccessToken(), cfg.twAccessSecret()));
+  }
   public boolean hasKeys(){ return !(e(cfg.twApiKey())||e(cfg.twApiSecret())||e(cfg.twAccessToken())||e(cfg.twAccessSecret())); }
   private static boolean e(String s){ return s==null||s.isBlank(); }
+  /** Uploads {@code media} ahead of its post (e.g. while the caption is generated); tweetVideo then reuses the ID. */
+  public long stageMedia(Path media) throws TwitterException { return staged.mediaIdFor(media, Instant.now().plusSeconds(120), this::upload); }
   public String tweetVideo(String text, Path media) throws TwitterException {
-    Twitter t=TwitterFactory.getSingleton(); t.setOAuthConsumer(cfg.twApiKey(), cfg.twApiSecret()); t.setOAuthAccessToken(new AccessToken(cfg.twAccessToken(), cfg.twAccessSecret()));
-    try (java.io.FileInputStream fis = new java.io.FileInputStream(media.toFile())) {
-      UploadedMedia m=t.uploadMediaChunked(media.getFileName().toString(), fis); StatusUpdate up=new StatusUpdate(text); up.setMediaIds(m.getMediaId()); Status s=t.updateStatus(up);
-      return "https://x.com/"+s.getUser().getScreenName()+"/status/"+s.getId();
+    long id=staged.mediaIdFor(media, Instant.now().plusSeconds(120), this::upload);
+    StatusUpdate up=new StatusUpdate(text); up.setMediaIds(id); Status s=client().updateStatus(up); staged.forget(media);
+    return "https://x.com/"+s.getUser().getScreenName()+"/status/"+s.getId();
+  }
+  // Segments go up in parallel; only the status update goes through twitter4j
+  private long upload(Path media) throws TwitterException {
+    try {
+      return uploader.upload(media);
     } catch (java.io.IOException e) {
-      throw new TwitterException("Failed to read media file", e);
+      throw new TwitterException("Media upload failed: " + e.getMessage(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TwitterException("Media upload interrupted", e);
     }
   }
+  // A client of our own, built once with our keys; the factory singleton's OAuth state is shared with everyone else
+  private synchronized Twitter client(){
+    if(twitter==null) twitter=new TwitterFactory(new ConfigurationBuilder().setOAuthConsumerKey(cfg.twApiKey()).setOAuthConsumerSecret(cfg.twApiSecret())
+      .setOAuthAccessToken(cfg.twAccessToken()).setOAuthAccessTokenSecret(cfg.twAccessSecret()).build()).getInstance();
+    return twitter;
+  }
 }
@@ -1,33 +1,304 @@
 package com.autopost;
-import java.io.*; import java.nio.file.*; import java.util.*; import java.util.stream.Collectors;
+import java.io.*; import java.nio.file.*; import java.util.*; import java.util.function.Consumer; import java.util.function.Function;
 public class VideoProcessor {
-  private final String ffmpeg=env("FFMPEG_PATH","ffmpeg"), ffprobe=env("FFPROBE_PATH","ffprobe");
-  private final Path tmp=Paths.get(env("FFMPEG_TEMP_DIR", System.getProperty("java.io.tmpdir")));
-  private final double scene=Double.parseDouble(env("SCENE_THRESHOLD","0.4"));
-  private final int clip= Integer.parseInt(env("CLIP_DURATION_SEC","20"));
-  private final int teaser= Integer.parseInt(env("TEASER_DURATION_SEC","180"));
-  private final int clips = Integer.parseInt(env("NUM_CLIPS","3"));
-  static String env(String k,String d){ var v=System.getenv(k); return v==null||v.isBlank()?d:v; }
+  private static final List<Double> FALLBACK_CUTS=List.of(0.0,60.0,120.0,180.0,240.0);
+  private static final double SHARD_OVERLAP_SEC=2;
+  private static final String SCALE_1080="scale=1920:1080:force_original_aspect_ratio=decrease,pad=1920:1080:(ow-iw)/2:(oh-ih)/2";
+  private final String ffmpeg=Config.env("FFMPEG_PATH","ffmpeg"), ffprobe=Config.env("FFPROBE_PATH","ffprobe");
+  private final double scene=Double.parseDouble(Config.env("SCENE_THRESHOLD","0.4"));
+  private final int clip= Integer.parseInt(Config.env("CLIP_DURATION_SEC","20"));
+  private final int teaser= Integer.parseInt(Config.env("TEASER_DURATION_SEC","180"));
+  private final int clips = Integer.parseInt(Config.env("NUM_CLIPS","3"));
+  private final boolean singlePass=!Config.env("FFMPEG_SINGLE_PASS","1").equals("0");
+  private final boolean fastScenes=Config.env("SCENE_DETECTOR","ffprobe").equalsIgnoreCase("fast");
+  private final double fastFps=Double.parseDouble(Config.env("SCENE_FAST_FPS","10"));
+  private final double shardMin=Double.parseDouble(Config.env("SCENE_SHARD_MIN_SEC","1200"));
+  private final int shards;
+  private final boolean passthrough=!Config.env("PASSTHROUGH","1").equals("0");
+  private final double maxKeyint=Double.parseDouble(Config.env("PASSTHROUGH_MAX_KEYINT_SEC","2"));
+  private final boolean snap=!Config.env("KEYFRAME_SNAP","1").equals("0");
+  private final List<Rendition> renditions=Rendition.parse(Config.env("RENDITIONS","1080p60"));
+  private final long progressLogMs=Long.parseLong(Config.env("FFMPEG_PROGRESS_LOG_SEC","10"))*1000;
+  private final String preset=Config.env("ENCODE_PRESET","fast");
+  private final Path out, scratch; private final int threads; private final FfmpegRun.Tracker tracker; private final PresetTuner tuner; private final SceneCache sceneCache=new SceneCache(); private final MediaProbe probe=new MediaProbe(ffprobe);
+  private final RenditionCache store=new RenditionCache(); private final Job job;
+  // What a processor and its withThreads copies (the encodes of one job) know about its inputs
+  private static final class Job {
+    final Map<Path,String> contentKeys=new java.util.concurrent.ConcurrentHashMap<>(); final Map<Path,Path> sourceOf=new java.util.concurrent.ConcurrentHashMap<>();
+    final Map<Path,String> presets=new java.util.concurrent.ConcurrentHashMap<>(); final Map<Path,Double> encodeSec=new java.util.concurrent.ConcurrentHashMap<>();
+  }
+  public VideoProcessor(){ this(0); }
+  /** @param threads ffmpeg/x264 threads for each job this processor runs (0 = let ffmpeg decide) */
+  public VideoProcessor(int threads){ this(threads,Paths.get(Config.env("FFMPEG_TEMP_DIR",System.getProperty("java.io.tmpdir")))); }
+  private VideoProcessor(int threads,Path dir){ this(threads,dir,dir,new FfmpegRun.Tracker(),null,new Job()); }
+  /** Writes outputs to the workspace's directory and cuts/calibration encodes to its scratch area. */
+  public VideoProcessor(int threads,Workspace ws){ this(threads,ws.dir(),ws.scratch(),new FfmpegRun.Tracker(),null,new Job()); }
+  private VideoProcessor(int threads,Path out,Path scratch,FfmpegRun.Tracker tracker,PresetTuner tuner,Job job){
+    this.threads=Math.max(0,threads); this.out=out; this.scratch=scratch; this.tracker=tracker; this.job=job;
+    // half of this processor's cores (all of them when threads is 0): scene shards each decode, at one to two cores apiece
+    this.shards=Integer.parseInt(Config.env("SCENE_SHARDS",String.valueOf(Math.max(1,(this.threads>0? this.threads: Runtime.getRuntime().availableProcessors())/2))));
+    this.tuner=tuner!=null || !preset.equalsIgnoreCase("auto")? tuner: new PresetTuner(ffmpeg,scratch);
+  }
+  /** A processor for a parallel job in the same directories that reports into this one's {@link #tracker()} and shares its preset calibration. */
+  public VideoProcessor withThreads(int threads){ return new VideoProcessor(threads,out,scratch,tracker,tuner,job); }
+  /** Live progress of running ffmpeg jobs and results of finished ones. */
+  public FfmpegRun.Tracker tracker(){ return tracker; }
+
+  /** One output of a source: a clip (index 1..n) or the teaser (index 1). */
+  public record Segment(String type,int index,double start,double dur){ public boolean teaser(){ return "teaser".equals(type); } }
+
+  /**
+   * Names {@code source}'s content by its checksum (Drive md5Checksum or a local hash), so cuts and renditions of it
+   * are looked up in the {@link RenditionCache} before ffmpeg runs; outputs of unnamed inputs are not cached.
+   */
+  public void identify(Path source,String checksum){ if(checksum!=null) job.contentKeys.put(source.toAbsolutePath(),"md5:"+checksum); }
+  // Everything besides the input and the segment that changes an output; the preset is the one the encode would use
+  // (with ENCODE_PRESET=auto the job's pick for encodeSec seconds), so outputs of another pick are not reused
+  private String outputKey(Path in,double encodeSec,String... what) throws Exception{
+    String src=job.contentKeys.get(in.toAbsolutePath()); if(src==null) return null;
+    return Config.hash(src,String.join(",",what),presetFor(in,encodeSec),"crf23",passthrough? "copy@"+maxKeyint: "encode",snap);
+  }
+  private Path cached(String key,Path dest,java.util.concurrent.Callable<Path> make) throws Exception{
+    if(key!=null && store.get(key,dest)){ System.out.println("Rendition cache hit: "+dest.getFileName()); job.contentKeys.put(dest.toAbsolutePath(),key); return dest; }
+    Path made=make.call(); if(key!=null){ store.put(key,made); job.contentKeys.put(made.toAbsolutePath(),key); }
+    return made;
+  }
 
+  public boolean singlePass(){ return singlePass; }
+  public List<Rendition> renditions(){ return renditions; }
+
+  /**
+   * Scene cuts of the whole source; empty for a source without cuts (planSegments falls back to fixed cuts). Throws
+   * when a detector exits non-zero or is killed, so a partial list is never mistaken for (and cached as) the answer.
+   */
   public List<Double> detectScenes(Path input) throws Exception{
-    var cmd=List.of(ffprobe,"-show_frames","-of","compact=p=0","-f","lavfi","movie='"+input.toAbsolutePath().toString().replace("'","\\'")+"',select=gt(scene\\,"+scene+")");
-    var p=new ProcessBuilder(cmd).redirectErrorStream(true).start(); List<String> out;
-    try(var br=new BufferedReader(new InputStreamReader(p.getInputStream()))){ out=br.lines().collect(Collectors.toList()); } p.waitFor();
-    List<Double> pts=new ArrayList<>(); for(String line: out){ int i=line.indexOf("pkt_pts_time="); if(i>=0){ int j=line.indexOf('|',i); String v=(j>i? line.substring(i+13,j): line.substring(i+13)); try{ pts.add(Double.parseDouble(v)); }catch(Exception ignore){} } }
-    if(pts.isEmpty()) pts=List.of(0.0,60.0,120.0,180.0,240.0); return pts;
+    // Sources longer than SCENE_SHARD_MIN_SEC are analysed as SCENE_SHARDS concurrent time ranges
+    double dur=shards>1? duration(input): 0;
+    List<Double> pts=dur>=shardMin? SceneShards.detect((from,span,started)->rangeScenes(input,from,span,started),dur,shards,SHARD_OVERLAP_SEC,sceneLimit())
+      : fastScenes? fastDetector().detect(input): lavfiScenes(input);
+    return pts;
+  }
+  private List<Double> rangeScenes(Path input,double from,double span,Consumer<Process> started) throws Exception{
+    if(fastScenes) return fastDetector().detect(List.of("-ss",fmt(from),"-t",fmt(span),"-i",input.toString()),null,from,started);
+    // movie's seek keeps source timestamps, so ffprobe reports absolute cut times
+    return lavfiScenes(sceneCmd(input.toAbsolutePath().toString(),":sp="+fmt(from)+",trim=duration="+fmt(span)),sceneLimit(),started);
+  }
+  /** Full-resolution lavfi scene scoring through ffprobe (SCENE_DETECTOR=ffprobe, the default). */
+  List<Double> lavfiScenes(Path input) throws Exception{ return lavfiScenes(input,sceneLimit()); }
+  List<Double> lavfiScenes(Path input,int limit) throws Exception{ return lavfiScenes(sceneCmd(input.toAbsolutePath().toString(),""),limit,p->{}); }
+  private List<Double> lavfiScenes(List<String> cmd,int limit,Consumer<Process> started) throws Exception{
+    var p=new ProcessBuilder(cmd).redirectErrorStream(true).start(); started.accept(p); List<Double> pts=scenePts(p,FfmpegRun.watch(p,"ffprobe scenes",true),limit); int code=p.waitFor();
+    // Killed once it had enough cuts is a success; any other non-zero exit (including a watchdog kill) is not
+    if(code!=0 && !(limit>0 && pts.size()>=limit)) throw new IOException("ffprobe scene detection exited "+code+" after "+pts.size()+" cuts");
+    return pts;
+  }
+  /** Container duration in seconds (0 when ffprobe can't tell). */
+  double duration(Path in) throws Exception{
+    try{ return Double.parseDouble(FfmpegRun.capture(List.of(ffprobe,"-v","error","-show_entries","format=duration","-of","csv=p=0",in.toString())).trim()); }
+    catch(IOException|NumberFormatException e){ return 0; }
+  }
+  /** Downscaled raw-frame scoring in Java (SCENE_DETECTOR=fast). */
+  FastSceneDetector fastDetector(){ return new FastSceneDetector(ffmpeg,scene,fastFps,sceneLimit()); }
+  /**
+   * Scene cuts read from a stream, e.g. a download still in progress; null when ffprobe can't demux it from a pipe
+   * (moov at the end), as opposed to an empty list for a source without cuts.
+   */
+  public List<Double> detectScenes(InputStream src) throws Exception{
+    if(fastScenes) return fastDetector().detect(src);
+    var p=new ProcessBuilder(sceneCmd("pipe:0","")).redirectErrorStream(true).start();
+    // A slow download feeds slowly: fed bytes keep the stall timer at bay
+    var in=FfmpegRun.watch(p,"ffprobe scenes",true); FfmpegRun.feed(p,src,in);
+    List<Double> pts=scenePts(p,in,sceneLimit()); return p.waitFor()==0 || pts.size()>=sceneLimit()? pts: null;
+  }
+  private List<String> sceneCmd(String movie,String seek){ return List.of(ffprobe,"-show_frames","-show_entries","frame=pts_time,pkt_pts_time","-of","compact=p=0","-f","lavfi","movie='"+movie.replace("'","\\'")+"'"+seek+",select=gt(scene\\,"+scene+")"); }
+  /** makeClips only uses the first NUM_CLIPS+1 cuts, so analysis stops (and ffprobe is killed) once it has them. */
+  int sceneLimit(){ return clips+1; }
+  /** ffprobe only prints on a cut, so {@code watch} is a sparse one; a run the watchdog killed fails rather than returning a partial list. */
+  private static List<Double> scenePts(Process p,FfmpegRun.Watch watch,int limit) throws IOException{
+    List<Double> pts; try(var in=watch){ pts=ScenePtsParser.parse(in,limit); }
+    if(limit>0 && pts.size()>=limit){ p.destroyForcibly(); return pts; }
+    if(watch.killed()!=null) throw new IOException("ffprobe scene detection killed ("+watch.killed()+") after "+pts.size()+" cuts");
+    return pts;
+  }
+  /** Cuts from an earlier run on the same source (Drive file ID + checksum) at the current threshold, or null. */
+  public List<Double> cachedScenes(String sourceId,String checksum){ return sceneCache.get(sceneKey(sourceId,checksum)); }
+  public void cacheScenes(String sourceId,String checksum,List<Double> cuts){ sceneCache.put(sceneKey(sourceId,checksum),cuts); }
+  private String sceneKey(String sourceId,String checksum){ return Config.hash(sourceId,checksum,scene,sceneLimit(),fastScenes? "fast@"+fastFps: "lavfi"); }
+  public List<Segment> planSegments(Path in) throws Exception{
+    try{ return planSegments(detectScenes(in)); }
+    catch(IOException e){ System.err.println("Scene detection failed, using fixed cuts: "+e.getMessage()); return planSegments(List.of()); }
+  }
+  public List<Segment> planSegments(List<Double> t){
+    if(t.isEmpty()) t=FALLBACK_CUTS; var segs=new ArrayList<Segment>(); int n=Math.min(clips, Math.max(0,t.size()-1));
+    for(int i=0;i<n;i++){ double s=t.get(i); double d=Math.min(clip,(i+1<t.size()? t.get(i+1)-s: clip)); segs.add(new Segment("clip",i+1,s,d)); }
+    segs.add(new Segment("teaser",1,t.get(0),teaser)); return segs;
+  }
+  /**
+   * True when the source is already H.264/AAC 1080p60 with keyframes at most PASSTHROUGH_MAX_KEYINT_SEC (default 2)
+   * apart, so segments can be stream-copied instead of re-encoded. PASSTHROUGH=0 disables it. Decided per source: for
+   * a {@link #cut} this is its source's answer, so scratch files are never probed (or cached in state/probe_cache).
+   */
+  public boolean canCopy(Path in){
+    if(!passthrough) return false;
+    try{ return probe.probe(source(in)).matches1080p60(maxKeyint); }catch(Exception e){ System.err.println("Probe failed, transcoding: "+e.getMessage()); return false; }
+  }
+  private boolean mp4Copyable(Path in){
+    try{ return probe.probe(source(in)).mp4Copyable(); }catch(Exception e){ System.err.println("Probe failed, transcoding: "+e.getMessage()); return false; }
   }
+  // The source a cut was taken from (cuts keep its codecs and audio), or the input itself
+  private Path source(Path in){ return job.sourceOf.getOrDefault(in.toAbsolutePath(),in); }
+  /** Stream-copies each segment; input seeking lands on the keyframe at or before its start. */
+  public List<Path> copySegments(Path in,List<Segment> segs,Function<Segment,String> naming) throws Exception{
+    var outs=new ArrayList<Path>(); for(var s: segs) outs.add(copy(in,s.start(),s.dur(),out.resolve(naming.apply(s)))); return outs;
+  }
+  private Path copy(Path in,double start,double dur,Path dest) throws Exception{
+    run("copy "+dest.getFileName(),List.of(ffmpeg,"-y","-ss",fmtUs(start),"-i",in.toString(),"-t",fmt(dur),"-map","0:v:0","-map","0:a:0?","-c","copy","-avoid_negative_ts","make_zero","-movflags","+faststart",fresh(dest)),dur); return dest;
+  }
+  /** Keyframe index of the source (see {@link KeyframeIndex}), or null when KEYFRAME_SNAP=0 or ffprobe can't build one. */
+  KeyframeIndex keyframes(Path in){
+    if(!snap) return null;
+    try{ var idx=KeyframeIndex.of(ffprobe,in); return idx.isEmpty()? null: idx; }catch(Exception e){ System.err.println("Keyframe index failed: "+e.getMessage()); return null; }
+  }
+  /** Moves each segment start back onto the keyframe at or before it (durations are kept); see {@link #snap}. */
+  public List<Segment> snapToKeyframes(Path in,List<Segment> segs){
+    var idx=keyframes(in); return idx==null? segs: snap(idx,segs);
+  }
+  /**
+   * Snaps to the floor keyframe, so a clip never starts after its scene cut. Clips whose cuts share a keyframe would be
+   * the same clip: only the first is kept and the rest renumbered. The teaser is never dropped.
+   */
+  static List<Segment> snap(KeyframeIndex idx,List<Segment> segs){
+    var outs=new ArrayList<Segment>(); var starts=new HashSet<Double>(); int n=0;
+    for(var s: segs){
+      double start=idx.floor(s.start());
+      if(s.teaser()){ outs.add(new Segment(s.type(),s.index(),start,s.dur())); continue; }
+      if(starts.add(start)) outs.add(new Segment(s.type(),++n,start,s.dur()));
+    }
+    return outs;
+  }
+  /**
+   * Starts on the keyframe at or before {@code start}, so the input seek lands exactly there with no frames decoded and thrown away.
+   * An H.264/AAC source then needs no re-encode at all: the range is copied and any scaling is left to to1080p60.
+   */
   public Path cut(Path in,double start,double dur,String name) throws Exception{
-    Path out=tmp.resolve(name); var cmd=List.of(ffmpeg,"-ss",String.valueOf(start),"-i",in.toString(),"-t",String.valueOf(dur),
-      "-c:v","libx264","-preset","fast","-crf","23","-c:a","aac","-b:a","192k",out.toString()); run(cmd); return out;
+    Path dest=scratch.resolve(name); job.sourceOf.put(dest.toAbsolutePath(),source(in));
+    return cached(outputKey(in,dur,"cut",fmtUs(start),fmt(dur)),dest,()->encodeCut(in,start,dur,dest,name));
+  }
+  private Path encodeCut(Path in,double start,double dur,Path dest,String name) throws Exception{
+    if(canCopy(in)) return copy(in,start,dur,dest);
+    var idx=keyframes(in); if(idx!=null) start=idx.floor(start);
+    if(idx!=null && mp4Copyable(in)) return copy(in,start,dur,dest);
+    var cmd=cutCommand(ffmpeg,threads,in,start,dur,presetFor(in,dur),dest); fresh(dest); run("cut "+name,cmd,dur); return dest;
+  }
+  /** The transcoding cut's ffmpeg command line; building it touches neither ffmpeg nor the file system. */
+  static List<String> cutCommand(String ffmpeg,int threads,Path in,double start,double dur,String preset,Path dest){
+    var cmd=new ArrayList<>(List.of(ffmpeg)); cmd.addAll(threadArgs(threads)); cmd.addAll(List.of("-ss",fmtUs(start),"-i",in.toString(),"-t",String.valueOf(dur)));
+    cmd.addAll(x264Args(threads,preset)); cmd.addAll(List.of("-c:a","aac","-b:a","192k",dest.toString())); return cmd;
   }
   public Path to1080p60(Path in,String name) throws Exception{
-    Path out=tmp.resolve(name); var cmd=List.of(ffmpeg,"-i",in.toString(),"-vf","scale=1920:1080:force_original_aspect_ratio=decrease,pad=1920:1080:(ow-iw)/2:(oh-ih)/2",
-      "-r","60","-c:v","libx264","-preset","fast","-crf","23","-c:a","aac","-b:a","256k",out.toString()); run(cmd); return out;
+    Path dest=out.resolve(name); return cached(outputKey(in,tuner==null? 0: duration(in),"1080p60"),dest,()->encode1080p60(in,dest,name));
+  }
+  private Path encode1080p60(Path in,Path dest,String name) throws Exception{
+    double len=duration(in);
+    if(canCopy(in)){ run("remux "+name,List.of(ffmpeg,"-y","-i",in.toString(),"-map","0:v:0","-map","0:a:0?","-c","copy","-movflags","+faststart",fresh(dest)),len); return dest; }
+    var cmd=new ArrayList<>(List.of(ffmpeg)); cmd.addAll(threadArgs(threads)); cmd.addAll(List.of("-i",in.toString(),"-vf",SCALE_1080,"-r","60"));
+    cmd.addAll(x264Args(threads,presetFor(in,len))); cmd.addAll(List.of("-c:a","aac","-b:a","256k",fresh(dest))); run("1080p60 "+name,cmd,len); return dest;
   }
   public java.util.List<Path> makeClips(Path in) throws Exception{
-    var t=detectScenes(in); var outs=new java.util.ArrayList<Path>(); int n=Math.min(clips, Math.max(0,t.size()-1));
-    for(int i=0;i<n;i++){ double s=t.get(i); double d=Math.min(clip,(i+1<t.size()? t.get(i+1)-s: clip)); outs.add(cut(in,s,d,"clip_"+(i+1)+".mp4")); }
-    outs.add(cut(in,t.get(0),teaser,"teaser.mp4")); return outs;
+    var outs=new java.util.ArrayList<Path>();
+    for(var s: snapToKeyframes(in,planSegments(in))) outs.add(cut(in,s.start(),s.dur(),s.teaser()? "teaser.mp4": "clip_"+s.index()+".mp4"));
+    return outs;
+  }
+  /**
+   * Single-decode equivalent of makeClips followed by to1080p60, for every rendition in RENDITIONS: one ffmpeg whose
+   * filter graph splits the decoded source per segment (trim), splits each segment again per rendition (scale/pad or
+   * crop, fps) and feeds one libx264 encoder per output. Extra renditions cost encoder time, never another decode.
+   * Outputs are grouped by rendition in ladder order, segments in order within each. Outputs found in the
+   * {@link RenditionCache} are taken from it and only the missing ones are encoded (renditions missing the same
+   * segments in one graph).
+   */
+  public List<Path> makeFinals(Path in,List<Segment> segs,Function<Segment,String> naming) throws Exception{ return makeFinals(in,segs,naming,renditions); }
+  public List<Path> makeFinals(Path in,List<Segment> segs,Function<Segment,String> naming,List<Rendition> ladder) throws Exception{
+    var outs=new ArrayList<Path>(); var keys=new ArrayList<String>(); int hits=0; double encodeSec=segs.stream().mapToDouble(Segment::dur).sum()*ladder.size();
+    // Renditions missing the same segments share one decode; hits are never encoded again
+    var missing=new LinkedHashMap<List<Integer>,List<Integer>>();
+    for(int k=0;k<ladder.size();k++){
+      var need=new ArrayList<Integer>();
+      for(int i=0;i<segs.size();i++){
+        var s=segs.get(i); Path dest=out.resolve(ladder.get(k).fileName(naming.apply(s))); String key=outputKey(in,encodeSec,"final",fmtUs(s.start()),fmt(s.dur()),ladder.get(k).name());
+        outs.add(dest); keys.add(key);
+        if(key!=null && store.get(key,dest)){ job.contentKeys.put(dest.toAbsolutePath(),key); hits++; continue; }
+        need.add(i);
+      }
+      if(!need.isEmpty()) missing.computeIfAbsent(need,x->new ArrayList<>()).add(k);
+    }
+    if(hits>0) System.out.println("Rendition cache: "+hits+" of "+outs.size()+" outputs reused");
+    for(var e: missing.entrySet()){
+      encodeFinals(in,e.getKey().stream().map(segs::get).toList(),naming,e.getValue().stream().map(ladder::get).toList());
+      for(int k: e.getValue()) for(int i: e.getKey()){ int at=k*segs.size()+i; String key=keys.get(at); if(key!=null){ store.put(key,outs.get(at)); job.contentKeys.put(outs.get(at).toAbsolutePath(),key); } }
+    }
+    return outs;
+  }
+  private List<Path> encodeFinals(Path in,List<Segment> segs,Function<Segment,String> naming,List<Rendition> ladder) throws Exception{
+    var outs=new ArrayList<Path>(); for(var r: ladder) for(var s: segs) outs.add(out.resolve(r.fileName(naming.apply(s))));
+    var cmd=finalsCommand(ffmpeg,threads,in,segs,ladder,outs,hasAudio(in),presetFor(in,segs.stream().mapToDouble(Segment::dur).sum()*ladder.size()));
+    for(var o: outs) fresh(o);
+    // out_time follows the furthest output, i.e. the longest segment
+    run("finals "+outs.get(0).getFileName()+(outs.size()>1? " +"+(outs.size()-1): ""),cmd,segs.stream().mapToDouble(Segment::dur).max().orElse(0)); return outs;
+  }
+  /**
+   * The single-decode finals command line: {@code outs} holds one path per rendition and segment, renditions in ladder
+   * order and segments in order within each. Building it touches neither ffmpeg nor the file system.
+   */
+  static List<String> finalsCommand(String ffmpeg,int threads,Path in,List<Segment> segs,List<Rendition> ladder,List<Path> outs,boolean audio,String preset){
+    double from=segs.stream().mapToDouble(Segment::start).min().orElse(0), to=segs.stream().mapToDouble(s->s.start()+s.dur()).max().orElse(0);
+    int n=segs.size(), r=ladder.size(); var g=new StringBuilder("[0:v]split=").append(n);
+    for(int i=0;i<n;i++) g.append("[s").append(i).append(']');
+    if(audio){ g.append(";[0:a]asplit=").append(n); for(int i=0;i<n;i++) g.append("[t").append(i).append(']'); }
+    for(int i=0;i<n;i++){ var s=segs.get(i); String trim="start="+fmtUs(s.start()-from)+":duration="+fmtUs(s.dur());
+      g.append(";[s").append(i).append("]trim=").append(trim).append(",setpts=PTS-STARTPTS");
+      if(r==1) g.append("[u").append(i).append("_0]"); else { g.append(",split=").append(r); for(int k=0;k<r;k++) g.append("[u").append(i).append('_').append(k).append(']'); }
+      for(int k=0;k<r;k++) g.append(';').append(ladder.get(k).filter("u"+i+"_"+k,"v"+i+"_"+k,i+"_"+k));
+      if(audio){ g.append(";[t").append(i).append("]atrim=").append(trim).append(",asetpts=PTS-STARTPTS");
+        if(r==1) g.append("[a").append(i).append("_0]"); else { g.append(",asplit=").append(r); for(int k=0;k<r;k++) g.append("[a").append(i).append('_').append(k).append(']'); } } }
+    var cmd=new ArrayList<>(List.of(ffmpeg,"-y")); cmd.addAll(threadArgs(threads)); cmd.addAll(List.of("-ss",fmtUs(from),"-t",fmtUs(to-from),"-i",in.toString(),"-filter_complex",g.toString()));
+    int per=threads>0? Math.max(1,threads/(n*r)): 0;
+    for(int k=0;k<r;k++) for(int i=0;i<n;i++){ cmd.addAll(List.of("-map","[v"+i+"_"+k+"]"));
+      if(audio) cmd.addAll(List.of("-map","[a"+i+"_"+k+"]","-c:a","aac","-b:a","256k"));
+      cmd.addAll(x264Args(per,preset)); cmd.add(outs.get(k*n+i).toString()); }
+    return cmd;
+  }
+  boolean hasAudio(Path in) throws Exception{
+    try{ return probe.probe(source(in)).acodec()!=null; }
+    catch(IOException e){ return false; }
+  }
+  // An output path may be a hard link into the RenditionCache from an earlier hit, and ffmpeg would rewrite that shared
+  // file in place; every output is unlinked right before ffmpeg opens it
+  private static String fresh(Path dest) throws IOException{ Files.deleteIfExists(dest); return dest.toString(); }
+  static List<String> threadArgs(int n){ return n>0? List.of("-threads",String.valueOf(n)): List.of(); }
+  /** ENCODE_PRESET (default fast), or with ENCODE_PRESET=auto the {@link PresetTuner} pick for {@code encodeSec} seconds of output. */
+  String presetFor(Path in,double encodeSec) throws Exception{
+    if(tuner==null) return preset;
+    // Once per job and source: the job's whole encode (see planEncode) against the budget, at this encode's thread count
+    Path src=source(in).toAbsolutePath();
+    return job.presets.computeIfAbsent(src,k->tuner.presetFor(k,sourceDuration(k),job.encodeSec.getOrDefault(k,encodeSec),threads));
+  }
+  /** Seconds of output the job will encode from {@code source}, which the ENCODE_PRESET=auto pick is budgeted for. */
+  public void planEncode(Path source,double encodeSec){ job.encodeSec.put(source.toAbsolutePath(),encodeSec); }
+  private double sourceDuration(Path src){ try{ return probe.probe(src).duration(); }catch(Exception e){ return 0; } }
+  static List<String> x264Args(int n,String preset){
+    var a=new ArrayList<>(List.of("-c:v","libx264","-preset",preset,"-crf","23"));
+    if(n>0) a.addAll(List.of("-threads",String.valueOf(n),"-x264-params","threads="+n)); return a;
+  }
+  static String fmt(double v){ return String.format(Locale.ROOT,"%.3f",v); }
+  /** Seek times at keyframe precision; rounding to ms could land just before a keyframe and seek to the previous one. */
+  static String fmtUs(double v){ return String.format(Locale.ROOT,"%.6f",v); }
+  /** Runs ffmpeg under the progress watchdog, logging progress every FFMPEG_PROGRESS_LOG_SEC (default 10). */
+  private FfmpegRun.Result run(String label,List<String> cmd,double expectedSec) throws Exception{
+    long[] last={System.currentTimeMillis()};
+    var r=FfmpegRun.ffmpeg(label,cmd,expectedSec,0,tracker,pr->{ long now=System.currentTimeMillis(); if(progressLogMs<=0 || now-last[0]<progressLogMs) return; last[0]=now;
+      System.out.println(String.format(Locale.ROOT,"%s: %s %.2fx %.0ffps eta %s",label,pr.percent()<0? fmt(pr.outSec())+"s": String.format(Locale.ROOT,"%.0f%%",pr.percent()),pr.speed(),pr.fps(),pr.etaSec()<0? "?": Math.round(pr.etaSec())+"s")); });
+    if(!r.ok()) throw new RuntimeException("ffmpeg "+label+" failed ("+(r.killed()!=null? r.killed(): "exit "+r.exit())+"): "+r.errorTail());
+    return r;
   }
-  private void run(java.util.List<String> cmd) throws Exception{ var p=new ProcessBuilder(cmd).redirectErrorStream(true).start(); try(var br=new BufferedReader(new InputStreamReader(p.getInputStream()))){ while(br.readLine()!=null){} } int c=p.waitFor(); if(c!=0) throw new RuntimeException("ffmpeg/ffprobe exited "+c); }
 }
@@ -0,0 +1,104 @@
+package com.autopost;
+import java.io.*; import java.nio.file.*; import java.util.*; import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * A job's private scratch area: {@code <WORKSPACE_DIR>/autopost-jobs/<job>-<pid>-<n>} for the source and finished
+ * outputs, and a scratch directory for intermediates, on WORKSPACE_TMPFS (e.g. /dev/shm) when that is set and has
+ * room. Opening one admits the job against the disk: free space minus what running jobs have reserved must leave
+ * WORKSPACE_MIN_FREE_MB (default 1024), and all reservations together stay within WORKSPACE_BUDGET_GB (default 0 = no
+ * cap); otherwise it waits up to WORKSPACE_WAIT_SEC (default 600) for other jobs to finish. Closing deletes both
+ * directories; directories left by dead processes are removed the first time a workspace is opened under a root.
+ * A {@link #resume resumable} workspace has a stable name and survives close (only its scratch goes) so a failed job
+ * can pick up its downloads and outputs; it is removed by {@link #discard()} or after WORKSPACE_RESUME_DAYS (default 3).
+ */
+public final class Workspace implements AutoCloseable {
+  private static final String OWNER=".owner", RESUME=".resume";
+  private static final AtomicInteger SEQ=new AtomicInteger(); private static final Set<Path> SWEPT=new HashSet<>(); private static long reserved;
+  private final Path dir, scratch; private final long bytes; private final boolean keep; private boolean closed;
+
+  /** Disk limits for admission; {@link #fromEnv()} in production. */
+  record Budget(Path root,Path tmpfs,long capBytes,long minFreeBytes,long waitMs){
+    static Budget fromEnv(){
+      String tmpfs=Config.env("WORKSPACE_TMPFS","");
+      return new Budget(Paths.get(Config.env("WORKSPACE_DIR",Config.env("FFMPEG_TEMP_DIR",System.getProperty("java.io.tmpdir")))).resolve("autopost-jobs"),
+        tmpfs.isEmpty()? null: Paths.get(tmpfs).resolve("autopost-jobs"), (long)(Double.parseDouble(Config.env("WORKSPACE_BUDGET_GB","0"))*(1L<<30)),
+        Long.parseLong(Config.env("WORKSPACE_MIN_FREE_MB","1024"))<<20, Long.parseLong(Config.env("WORKSPACE_WAIT_SEC","600"))*1000);
+    }
+  }
+
+  private Workspace(Path dir,Path scratch,long bytes,boolean keep){ this.dir=dir; this.scratch=scratch; this.bytes=bytes; this.keep=keep; }
+
+  /** Disk a job on a source of {@code sourceBytes} may need: the source plus its intermediates and outputs. */
+  public static long estimate(long sourceBytes){ return Math.max(256L<<20, sourceBytes*2); }
+
+  public static Workspace open(String job,long bytes) throws IOException, InterruptedException{ return open(job,bytes,Budget.fromEnv()); }
+  static Workspace open(String job,long bytes,Budget b) throws IOException, InterruptedException{ return open(job,bytes,b,false); }
+  /** Like {@link #open} but reopens the same directory for the same job, with whatever an earlier attempt left in it. */
+  public static Workspace resume(String job,long bytes) throws IOException, InterruptedException{ return open(job,bytes,Budget.fromEnv(),true); }
+  static Workspace open(String job,long bytes,Budget b,boolean keep) throws IOException, InterruptedException{
+    Files.createDirectories(b.root()); sweepOnce(b);
+    admit(b,bytes);
+    try{
+      String name=job.replaceAll("[^A-Za-z0-9._-]","_")+(keep? "": "-"+ProcessHandle.current().pid()+"-"+SEQ.incrementAndGet());
+      Path dir=Files.createDirectories(b.root().resolve(name));
+      if(keep) Files.writeString(dir.resolve(RESUME),String.valueOf(System.currentTimeMillis()));
+      else Files.writeString(dir.resolve(OWNER),String.valueOf(ProcessHandle.current().pid()));
+      Path scratch=dir.resolve("scratch");
+      if(b.tmpfs()!=null) try{
+        Files.createDirectories(b.tmpfs());
+        if(Files.getFileStore(b.tmpfs()).getUsableSpace()>=bytes/2+b.minFreeBytes()){ scratch=Files.createDirectories(b.tmpfs().resolve(name)); Files.writeString(scratch.resolve(OWNER),String.valueOf(ProcessHandle.current().pid())); }
+      }catch(IOException e){ System.err.println("tmpfs scratch unavailable, using disk: "+e.getMessage()); }
+      Files.createDirectories(scratch);
+      return new Workspace(dir,scratch,bytes,keep);
+    }catch(IOException e){ release(bytes); throw e; }
+  }
+
+  /** Source download and final outputs. */
+  public Path dir(){ return dir; }
+  /** Intermediates (cuts, calibration encodes); may be on tmpfs. */
+  public Path scratch(){ return scratch; }
+
+  /** Deletes a resumable workspace for good once its job has finished; same as close for any other. */
+  public void discard(){ close(true); }
+  @Override public void close(){ close(!keep); }
+  private synchronized void close(boolean all){
+    if(closed) return; closed=true;
+    try{ deleteTree(scratch); if(all) deleteTree(dir); }
+    catch(IOException e){ System.err.println("Workspace cleanup failed for "+dir+": "+e.getMessage()); }
+    finally{ release(bytes); }
+  }
+
+  private static synchronized void admit(Budget b,long bytes) throws IOException, InterruptedException{
+    long until=System.currentTimeMillis()+b.waitMs();
+    while(true){
+      long free=Files.getFileStore(b.root()).getUsableSpace();
+      // the cap limits concurrency only: a lone job bigger than the cap still runs if the disk has room
+      if(free-reserved-bytes>=b.minFreeBytes() && (b.capBytes()<=0 || reserved==0 || reserved+bytes<=b.capBytes())){ reserved+=bytes; return; }
+      long left=until-System.currentTimeMillis();
+      if(reserved==0 || left<=0) throw new IOException("Not enough disk for a "+(bytes>>20)+" MB job in "+b.root()+" ("+(free>>20)+" MB free, "+(reserved>>20)+" MB reserved)");
+      Workspace.class.wait(Math.min(left,5000)); // re-check free space periodically too
+    }
+  }
+  private static synchronized void release(long bytes){ reserved=Math.max(0,reserved-bytes); Workspace.class.notifyAll(); }
+
+  private static synchronized void sweepOnce(Budget b){
+    if(!SWEPT.add(b.root())) return;
+    long resumeCutoff=System.currentTimeMillis()-Long.parseLong(Config.env("WORKSPACE_RESUME_DAYS","3"))*86_400_000L;
+    for(Path root: b.tmpfs()==null? List.of(b.root()): List.of(b.root(),b.tmpfs())){
+      if(!Files.isDirectory(root)) continue;
+      try(var s=Files.list(root)){
+        for(Path d: s.toList()){
+          if(Files.exists(d.resolve(RESUME)) && Files.getLastModifiedTime(d.resolve(RESUME)).toMillis()<resumeCutoff){ System.out.println("Removing abandoned workspace "+d); deleteTree(d); continue; }
+          Path owner=d.resolve(OWNER); if(!Files.exists(owner)) continue;
+          try{ long pid=Long.parseLong(Files.readString(owner).trim()); if(ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) continue; }
+          catch(NumberFormatException ignore){}
+          System.out.println("Removing stale workspace "+d); deleteTree(d);
+        }
+      }catch(IOException e){ System.err.println("Workspace sweep failed: "+e.getMessage()); }
+    }
+  }
+
+  static void deleteTree(Path root) throws IOException{
+    if(!Files.exists(root)) return;
+    try(var s=Files.walk(root)){ for(Path p: s.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p); }
+  }
+}
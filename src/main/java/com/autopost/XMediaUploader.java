@@ -0,0 +1,123 @@
+package com.autopost;
+import com.fasterxml.jackson.databind.JsonNode; import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.*; import java.net.URI; import java.net.URLEncoder; import java.net.http.*; import java.nio.ByteBuffer; import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets; import java.nio.file.*; import java.security.SecureRandom; import java.time.Duration; import java.util.*; import java.util.concurrent.*;
+import javax.crypto.Mac; import javax.crypto.spec.SecretKeySpec;
+/**
+ * Chunked video upload to X's media endpoint over one shared HttpClient (kept-alive connections): INIT, then APPEND
+ * segments of X_UPLOAD_SEGMENT_MB (default 4) with X_UPLOAD_CONCURRENCY (default 4) in flight, FINALIZE, and STATUS
+ * polling at the interval X asks for (backing off up to 30s) until the video is processed or
+ * X_UPLOAD_PROCESSING_TIMEOUT_SEC (default 600) passes. A failed segment is retried on its own. Requests are OAuth 1.0a
+ * signed; X_UPLOAD_URL points it at another endpoint (e.g. a local stand-in).
+ */
+public final class XMediaUploader {
+  public record Credentials(String consumerKey,String consumerSecret,String token,String tokenSecret){}
+  private static final ObjectMapper M=new ObjectMapper(); private static final SecureRandom RNG=new SecureRandom(); private static final int RETRIES=3;
+  private final HttpClient http=HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(20)).build();
+  private final Credentials creds; private final URI endpoint; private final int segmentBytes, concurrency; private final long processingMs;
+
+  public XMediaUploader(Credentials creds){
+    this(creds,URI.create(Config.env("X_UPLOAD_URL","https://upload.twitter.com/1.1/media/upload.json")),(int)(Double.parseDouble(Config.env("X_UPLOAD_SEGMENT_MB","4"))*(1<<20)),
+      Integer.parseInt(Config.env("X_UPLOAD_CONCURRENCY","4")),Long.parseLong(Config.env("X_UPLOAD_PROCESSING_TIMEOUT_SEC","600"))*1000);
+  }
+  XMediaUploader(Credentials creds,URI endpoint,int segmentBytes,int concurrency,long processingMs){
+    this.creds=creds; this.endpoint=endpoint; this.segmentBytes=Math.max(64<<10,segmentBytes); this.concurrency=Math.max(1,concurrency); this.processingMs=processingMs;
+  }
+
+  /** Uploads {@code media} and returns its media ID once X has finished processing it. */
+  public long upload(Path media) throws IOException, InterruptedException{
+    long size=Files.size(media), t0=System.nanoTime();
+    JsonNode init=form(Map.of("command","INIT","total_bytes",String.valueOf(size),"media_type","video/mp4","media_category","tweet_video"));
+    String id=init.path("media_id_string").asText(init.path("media_id").asText());
+    if(id.isEmpty()) throw new IOException("X media INIT returned no media_id");
+    int segments=(int)Math.max(1,(size+segmentBytes-1)/segmentBytes);
+    var pool=Executors.newFixedThreadPool(Math.min(concurrency,segments),r->{ var t=new Thread(r,"x-append"); t.setDaemon(true); return t; });
+    try(FileChannel ch=FileChannel.open(media,StandardOpenOption.READ)){
+      var parts=new ArrayList<Future<?>>();
+      for(int i=0;i<segments;i++){ int seg=i; parts.add(pool.submit(()->{ append(ch,id,seg,size); return null; })); }
+      for(var f: parts){
+        try{ f.get(); }
+        catch(ExecutionException e){ parts.forEach(p->p.cancel(true)); throw e.getCause() instanceof IOException io? io: new IOException("X media APPEND failed",e.getCause()); }
+      }
+    }finally{ pool.shutdownNow(); }
+    JsonNode fin=form(Map.of("command","FINALIZE","media_id",id));
+    awaitProcessing(id,fin.path("processing_info"));
+    System.out.println(String.format(Locale.ROOT,"Uploaded %s to X (%d MB, %d segments) in %.1fs",media.getFileName(),size>>20,segments,(System.nanoTime()-t0)/1e9));
+    return Long.parseLong(id);
+  }
+
+  private void append(FileChannel ch,String id,int seg,long size) throws IOException, InterruptedException{
+    long off=(long)seg*segmentBytes; var buf=ByteBuffer.allocate((int)Math.min(segmentBytes,size-off));
+    while(buf.hasRemaining()){ if(ch.read(buf,off+buf.position())<0) throw new EOFException("Media shrank during upload"); }
+    String boundary="----autopost"+Long.toHexString(RNG.nextLong());
+    var body=new ByteArrayOutputStream(buf.capacity()+512);
+    for(var f: List.of(Map.entry("command","APPEND"),Map.entry("media_id",id),Map.entry("segment_index",String.valueOf(seg))))
+      body.writeBytes(("--"+boundary+"\r\nContent-Disposition: form-data; name=\""+f.getKey()+"\"\r\n\r\n"+f.getValue()+"\r\n").getBytes(StandardCharsets.UTF_8));
+    body.writeBytes(("--"+boundary+"\r\nContent-Disposition: form-data; name=\"media\"; filename=\"blob\"\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+    body.write(buf.array(),0,buf.capacity());
+    body.writeBytes(("\r\n--"+boundary+"--\r\n").getBytes(StandardCharsets.UTF_8));
+    // multipart fields are not part of the OAuth signature
+    var req=HttpRequest.newBuilder(endpoint).timeout(Duration.ofMinutes(2)).header("Authorization",authorization("POST",endpoint,Map.of()))
+      .header("Content-Type","multipart/form-data; boundary="+boundary).POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray())).build();
+    send(req,"APPEND "+seg);
+  }
+
+  private void awaitProcessing(String id,JsonNode info) throws IOException, InterruptedException{
+    long until=System.currentTimeMillis()+processingMs; long waitMs=1000;
+    while(!info.isMissingNode() && !info.isNull()){
+      String state=info.path("state").asText();
+      if(state.equals("succeeded")) return;
+      if(state.equals("failed")) throw new IOException("X could not process media "+id+": "+info.path("error").path("message").asText(info.toString()));
+      waitMs=info.has("check_after_secs")? info.get("check_after_secs").asLong()*1000: Math.min(30_000,waitMs*2);
+      if(System.currentTimeMillis()+waitMs>until) throw new IOException("X still processing media "+id+" after "+processingMs/1000+"s");
+      Thread.sleep(waitMs);
+      var q=new TreeMap<String,String>(Map.of("command","STATUS","media_id",id));
+      URI uri=URI.create(endpoint+"?"+encodeForm(q));
+      info=send(HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(30)).header("Authorization",authorization("GET",endpoint,q)).GET().build(),"STATUS").path("processing_info");
+    }
+  }
+
+  private JsonNode form(Map<String,String> fields) throws IOException, InterruptedException{
+    var req=HttpRequest.newBuilder(endpoint).timeout(Duration.ofMinutes(2)).header("Authorization",authorization("POST",endpoint,fields))
+      .header("Content-Type","application/x-www-form-urlencoded").POST(HttpRequest.BodyPublishers.ofString(encodeForm(fields))).build();
+    return send(req,fields.get("command"));
+  }
+
+  // Retries connection failures, 429 and 5xx with backoff; anything else fails at once
+  private JsonNode send(HttpRequest req,String what) throws IOException, InterruptedException{
+    for(int attempt=1;;attempt++){
+      HttpResponse<String> res;
+      try{ res=http.send(req,HttpResponse.BodyHandlers.ofString()); }
+      catch(IOException e){
+        if(attempt>=RETRIES) throw e;
+        System.err.println("X media "+what+" failed: "+e.getMessage()+" (retrying)"); Thread.sleep(500L<<attempt); continue;
+      }
+      int code=res.statusCode();
+      if(code/100==2) return res.body()==null||res.body().isBlank()? M.createObjectNode(): M.readTree(res.body());
+      String msg="X media "+what+" failed: HTTP "+code+" "+res.body();
+      if((code!=429 && code<500) || attempt>=RETRIES) throw new IOException(msg);
+      System.err.println(msg+" (retrying)"); Thread.sleep(500L<<attempt);
+    }
+  }
+
+  /** OAuth 1.0a HMAC-SHA1 header for a request whose signed parameters (query or form body) are {@code params}. */
+  String authorization(String method,URI uri,Map<String,String> params){
+    var oauth=new TreeMap<String,String>();
+    oauth.put("oauth_consumer_key",creds.consumerKey()); oauth.put("oauth_nonce",Long.toHexString(RNG.nextLong())+Long.toHexString(RNG.nextLong()));
+    oauth.put("oauth_signature_method","HMAC-SHA1"); oauth.put("oauth_timestamp",String.valueOf(System.currentTimeMillis()/1000));
+    oauth.put("oauth_token",creds.token()); oauth.put("oauth_version","1.0");
+    var all=new TreeMap<String,String>(); params.forEach((k,v)->all.put(pct(k),pct(v))); oauth.forEach((k,v)->all.put(pct(k),pct(v)));
+    var joined=new StringJoiner("&"); all.forEach((k,v)->joined.add(k+"="+v));
+    String base=method+"&"+pct(uri.getScheme()+"://"+uri.getRawAuthority()+uri.getRawPath())+"&"+pct(joined.toString());
+    oauth.put("oauth_signature",sign(pct(creds.consumerSecret())+"&"+pct(creds.tokenSecret()),base));
+    var h=new StringJoiner(", ","OAuth ",""); oauth.forEach((k,v)->h.add(pct(k)+"=\""+pct(v)+"\""));
+    return h.toString();
+  }
+  static String sign(String key,String base){
+    try{ Mac mac=Mac.getInstance("HmacSHA1"); mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8),"HmacSHA1"));
+      return Base64.getEncoder().encodeToString(mac.doFinal(base.getBytes(StandardCharsets.UTF_8))); }
+    catch(java.security.GeneralSecurityException e){ throw new IllegalStateException(e); }
+  }
+  static String pct(String s){ return URLEncoder.encode(s,StandardCharsets.UTF_8).replace("+","%20").replace("*","%2A").replace("%7E","~"); }
+  private static String encodeForm(Map<String,String> f){ var j=new StringJoiner("&"); f.forEach((k,v)->j.add(pct(k)+"="+pct(v))); return j.toString(); }
+}
@@ -1,10 +1,16 @@
 package com.autopost.service;
 
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.drive.Drive;
-import com.google.auth.http.HttpCredentialsAdapter;
-import com.google.auth.oauth2.GoogleCredentials;
+import com.autopost.DriveClients;
+import com.autopost.JobState;
+import com.autopost.RawIndex;
+import com.autopost.ReadyQueue;
+import com.autopost.SourceCache;
+import com.autopost.StageTimings;
+import com.autopost.StagedMedia;
+import com.autopost.StreamingDownload;
+import com.autopost.Workspace;
+import com.autopost.XMediaUploader;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -13,12 +19,17 @@ import twitter4j.*;
 import twitter4j.conf.ConfigurationBuilder;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.io.*;
 import java.nio.file.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class PostingService {
@@ -47,15 +58,39 @@ public class PostingService {
     @Value("${openai.api.key}")
     private String openAiApiKey;
     
+    @Value("${render.ahead.buffer:2}")
+    private int renderAheadBuffer;
+    
+    @Value("${render.ahead.lead.min:30}")
+    private int renderAheadLeadMin;
+    
+    @Value("${render.ahead.window:0-6}")
+    private String renderAheadWindow;
+    
     private final TaskScheduler taskScheduler;
     private final Path statePath = Paths.get("./state");
     private final Path nextRunPath = statePath.resolve("next_run.json");
     private final Path postedPath = statePath.resolve("posted");
     
     private Twitter twitter;
+    private XMediaUploader mediaUploader;
     private Drive driveService;
+    private RawIndex rawIndex;
     private ScheduledFuture<?> currentScheduledPost;
     
+    // Render-ahead: packages (teaser + caption) are prepared off the posting thread, one source at a time
+    private final ReadyQueue readyQueue = new ReadyQueue();
+    private final StageTimings timings = new StageTimings();
+    private final StagedMedia stagedMedia = new StagedMedia();
+    private final SourceCache sourceCache = new SourceCache();
+    private final ReentrantLock renderLock = new ReentrantLock();
+    private final AtomicBoolean rendering = new AtomicBoolean();
+    private final ExecutorService renderExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "render-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+    
     public PostingService(TaskScheduler taskScheduler) {
         this.taskScheduler = taskScheduler;
     }
@@ -74,6 +109,8 @@ public class PostingService {
                 
                 TwitterFactory tf = new TwitterFactory(cb.build());
                 twitter = tf.getInstance();
+                mediaUploader = new XMediaUploader(new XMediaUploader.Credentials(
+                    twitterApiKey, twitterApiSecret, twitterAccessToken, twitterAccessSecret));
                 System.out.println("Twitter service initialized successfully");
             } catch (Exception e) {
                 System.err.println("Failed to initialize Twitter service: " + e.getMessage());
@@ -85,15 +122,10 @@ public class PostingService {
         // Initialize Google Drive if credentials are available
         if (hasGoogleCredentials()) {
             try {
-                GoogleCredentials credentials = GoogleCredentials.fromStream(new FileInputStream(serviceAccountPath))
-                    .createScoped(Arrays.asList("https://www.googleapis.com/auth/drive.readonly"));
-                
-                driveService = new Drive.Builder(
-                    GoogleNetHttpTransport.newTrustedTransport(),
-                    GsonFactory.getDefaultInstance(),
-                    new HttpCredentialsAdapter(credentials))
-                    .setApplicationName("AutoPost")
-                    .build();
+                // Shared with any other Drive client in the process: warm connections, one token kept fresh
+                driveService = DriveClients.account(Paths.get(serviceAccountPath),
+                    List.of("https://www.googleapis.com/auth/drive.readonly")).drive();
+                rawIndex = RawIndex.forDrive(driveService, rawFolderId);
                 System.out.println("Google Drive service initialized successfully");
             } catch (Exception e) {
                 System.err.println("Failed to initialize Google Drive service: " + e.getMessage());
@@ -106,6 +138,11 @@ public class PostingService {
         loadScheduledPost();
     }
     
+    @PreDestroy
+    public void shutdown() {
+        renderExecutor.shutdownNow();
+    }
+    
     private boolean hasTwitterCredentials() {
         return twitterApiKey != null && !twitterApiKey.trim().isEmpty() &&
                twitterApiSecret != null && !twitterApiSecret.trim().isEmpty() &&
@@ -120,18 +157,22 @@ public class PostingService {
                new File(serviceAccountPath).exists();
     }
     
-    // Check every minute if it's time to post
+    // Check every minute if it's time to post, and whether upcoming posts need preparing
     @Scheduled(fixedDelay = 60000)
     public void checkAndPost() throws Exception {
-        if (!Files.exists(nextRunPath)) {
-            return;
+        ZonedDateTime now = ZonedDateTime.now(ZoneId.of("Europe/London"));
+        ZonedDateTime scheduledTime = null;
+        if (Files.exists(nextRunPath)) {
+            String content = Files.readString(nextRunPath);
+            Map<String, Object> nextRun = new com.fasterxml.jackson.databind.ObjectMapper().readValue(content, Map.class);
+            scheduledTime = ZonedDateTime.parse((String) nextRun.get("timestamp"));
         }
         
-        String content = Files.readString(nextRunPath);
-        Map<String, Object> nextRun = new com.fasterxml.jackson.databind.ObjectMapper().readValue(content, Map.class);
-        
-        ZonedDateTime scheduledTime = ZonedDateTime.parse((String) nextRun.get("timestamp"));
-        ZonedDateTime now = ZonedDateTime.now(ZoneId.of("Europe/London"));
+        renderAhead(now, scheduledTime);
+        if (scheduledTime == null) {
+            return;
+        }
+        stageNextMedia(now, scheduledTime);
         
         // Check if it's time to post (within 1 minute window)
         if (now.isAfter(scheduledTime) && now.isBefore(scheduledTime.plusMinutes(1))) {
@@ -160,131 +201,315 @@ public class PostingService {
             return;
         }
         
-        // Check for RAW video
-        File rawVideo = downloadLatestRawVideo();
-        if (rawVideo == null) {
-            System.out.println("No RAW video available, skipping post.");
-            return;
+        // Normally prepared ahead of time; otherwise (e.g. nothing was ready) build one now
+        ReadyQueue.Package pkg = readyQueue.next();
+        if (pkg == null) {
+            renderLock.lock();
+            try {
+                pkg = readyQueue.next();
+                if (pkg == null) {
+                    List<RawIndex.Entry> candidates = unpostedRawVideos(1);
+                    if (candidates.isEmpty()) {
+                        System.out.println("No unposted RAW video available, skipping post.");
+                        return;
+                    }
+                    pkg = preparePackage(candidates.get(0));
+                }
+            } finally {
+                renderLock.unlock();
+            }
         }
         
+        // Upload to Twitter: all that is left at the slot
+        uploadAndPost(pkg.media().toFile(), pkg.caption());
+        JobState.open(jobId(pkg.sourceId()), pkg.md5()).complete(JobState.Stage.POSTED, Map.of(), Map.of());
+        readyQueue.remove(pkg);
+        
+        // Mark as posted
+        Files.createDirectories(postedPath);
+        Files.createFile(todayMarker);
+        
+        // Clear next_run.json for tomorrow's planning
+        Files.deleteIfExists(nextRunPath);
+        
+        // Log success
+        logPostSuccess(today, pkg.caption());
+    }
+    
+    /**
+     * Starts preparing packages in the background when the next slot has none ready and is closer than the measured
+     * preparation time plus the lead, or during the overnight window while fewer than the buffer size are ready.
+     */
+    private void renderAhead(ZonedDateTime now, ZonedDateTime slot) {
+        if (driveService == null || rendering.get()) {
+            return;
+        }
+        int ready = readyQueue.size();
+        boolean overnight = inRenderWindow(now.getHour());
+        if (!ReadyQueue.shouldPrepare(now.toInstant(), slot == null ? null : slot.toInstant(), ready, renderAheadBuffer,
+                preparationLead(), overnight)) {
+            return;
+        }
+        if (!rendering.compareAndSet(false, true)) {
+            return;
+        }
+        int target = overnight ? renderAheadBuffer : 1;
+        renderExecutor.submit(() -> {
+            try {
+                fillReadyQueue(target);
+            } catch (Exception e) {
+                System.err.println("Render-ahead failed: " + e.getMessage());
+            } finally {
+                rendering.set(false);
+            }
+        });
+    }
+    
+    /**
+     * Uploads the next package's video to X once the slot is close enough for the media ID to still be valid then,
+     * and again if the stored ID would expire before the slot, so posting needs only the status update.
+     */
+    private void stageNextMedia(ZonedDateTime now, ZonedDateTime slot) {
+        if (twitter == null || !now.isBefore(slot) || Duration.between(now, slot).compareTo(stagedMedia.usableFor()) > 0) {
+            return;
+        }
+        ReadyQueue.Package pkg = readyQueue.next();
+        Instant until = slot.plusMinutes(2).toInstant();
+        if (pkg == null || stagedMedia.freshUntil(pkg.media(), until) || !rendering.compareAndSet(false, true)) {
+            return;
+        }
+        renderExecutor.submit(() -> {
+            try {
+                stagedMedia.mediaIdFor(pkg.media(), until, mediaUploader::upload);
+            } catch (Exception e) {
+                System.err.println("Staging media on X failed, will retry: " + e.getMessage());
+            } finally {
+                rendering.set(false);
+            }
+        });
+    }
+    
+    // Expected preparation time with some slack, plus the configured lead
+    private Duration preparationLead() {
+        double sec = timings.get("download", 300) + timings.get("encode", 900) + timings.get("caption", 30);
+        return Duration.ofSeconds((long) (sec * 1.5)).plusMinutes(renderAheadLeadMin);
+    }
+    
+    private boolean inRenderWindow(int hour) {
         try {
-            // Process video
-            File[] clips = createClips(rawVideo);
-            File teaser = createTeaser(clips);
+            String[] range = renderAheadWindow.split("-");
+            int from = Integer.parseInt(range[0].trim());
+            int to = Integer.parseInt(range[1].trim());
+            return from <= to ? hour >= from && hour < to : hour >= from || hour < to;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+    
+    // The lock is held per package, so a slot that finds the queue empty waits for one package at most
+    private void fillReadyQueue(int target) throws Exception {
+        for (RawIndex.Entry f : unpostedRawVideos(target + readyQueue.size())) {
+            renderLock.lock();
+            try {
+                if (readyQueue.size() >= target) {
+                    break;
+                }
+                if (readyQueue.has(f.id())) {
+                    continue;
+                }
+                preparePackage(f);
+            } finally {
+                renderLock.unlock();
+            }
+            System.out.println("Ready to post: " + f.name() + " (" + readyQueue.size() + " in queue)");
+        }
+    }
+    
+    private static String jobId(String fileId) {
+        return "post-" + fileId;
+    }
+    
+    // Each source's preparation is checkpointed, so a failure resumes without rebuilding the teaser
+    private ReadyQueue.Package preparePackage(RawIndex.Entry source) throws Exception {
+        String jobId = jobId(source.id());
+        JobState job = JobState.open(jobId, source.md5());
+        long size = Math.max(0, source.size());
+        try (Workspace ws = Workspace.resume(jobId, Workspace.estimate(size))) {
+            Path teaserPath = job.artifact("teaser");
+            if (teaserPath == null) {
+                // The source stays cached (not deleted), so a retry after a failed encode does not download it again
+                try (SourceCache.Lease raw = rawSource(source)) {
+                    job.complete(JobState.Stage.DOWNLOADED, Map.of(), Map.of());
+                    // Process video
+                    long t0 = System.nanoTime();
+                    File[] clips = createClips(raw.path().toFile(), ws.dir());
+                    teaserPath = createTeaser(clips, ws.dir().resolve("teaser.mp4").toFile()).toPath();
+                    timings.record("encode", (System.nanoTime() - t0) / 1e9);
+                    job.complete(JobState.Stage.ENCODED, Map.of("teaser", teaserPath), Map.of());
+                }
+            } else {
+                System.out.println("Resuming " + source.name() + " after " + job.stage() + ": reusing the teaser");
+            }
             
             // Generate caption
-            String caption = generateCaption(teaser);
-            
-            // Upload to Twitter
-            uploadAndPost(teaser, caption);
-            
-            // Mark as posted
-            Files.createDirectories(postedPath);
-            Files.createFile(todayMarker);
-            
-            // Clear next_run.json for tomorrow's planning
-            Files.deleteIfExists(nextRunPath);
-            
-            // Log success
-            logPostSuccess(today, caption);
+            String caption;
+            if (job.done(JobState.Stage.CAPTIONED)) {
+                caption = job.data("caption").asText();
+            } else {
+                long t0 = System.nanoTime();
+                caption = generateCaption(teaserPath.toFile());
+                timings.record("caption", (System.nanoTime() - t0) / 1e9);
+                job.complete(JobState.Stage.CAPTIONED, Map.of(), Map.of("caption", caption));
+            }
             
-        } finally {
-            // Cleanup temporary files
-            rawVideo.delete();
+            ReadyQueue.Package pkg = readyQueue.add(source.id(), source.md5(), teaserPath, caption);
+            ws.discard();
+            return pkg;
         }
     }
     
-    private File downloadLatestRawVideo() throws IOException {
+    // The RAW file from the source cache, downloaded into it on a miss; pinned until the lease is closed
+    private SourceCache.Lease rawSource(RawIndex.Entry source) throws IOException {
+        SourceCache.Lease cached = sourceCache.get(source.id(), source.md5());
+        if (cached != null) {
+            System.out.println("Using cached source for " + source.name());
+            return cached;
+        }
+        long t0 = System.nanoTime();
+        Path part = downloadRawVideo(source.id(), sourceCache.reserve(source.id()));
+        timings.record("download", (System.nanoTime() - t0) / 1e9);
+        return sourceCache.put(source.id(), source.md5(), part);
+    }
+    
+    // Newest first, skipping sources that were already posted (X rejects a repeated post anyway); the RAW index
+    // catches up through Drive's changes feed rather than a fresh listing
+    private List<RawIndex.Entry> unpostedRawVideos(int limit) {
+        List<RawIndex.Entry> out = new ArrayList<>();
         try {
-            // List files in RAW folder
-            Drive.Files.List request = driveService.files().list()
-                .setQ("'" + rawFolderId + "' in parents and mimeType='video/mp4' and trashed=false")
-                .setOrderBy("createdTime desc")
-                .setPageSize(1);
-            
-            com.google.api.services.drive.model.FileList files = request.execute();
-            
-            if (files.getFiles().isEmpty()) {
-                return null;
+            rawIndex.sync();
+            for (RawIndex.Entry f : rawIndex.newestFirst()) {
+                if (out.size() >= limit) {
+                    break;
+                }
+                if ("video/mp4".equals(f.mimeType())
+                        && !JobState.open(jobId(f.id()), f.md5()).done(JobState.Stage.POSTED)) {
+                    out.add(f);
+                }
             }
-            
-            // Download the latest file
-            String fileId = files.getFiles().get(0).getId();
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            driveService.files().get(fileId).executeMediaAndDownloadTo(outputStream);
-            
-            File tempFile = File.createTempFile("raw_", ".mp4");
-            Files.write(tempFile.toPath(), outputStream.toByteArray());
-            
-            return tempFile;
-            
         } catch (Exception e) {
-            System.err.println("Error downloading from Drive: " + e.getMessage());
-            return null;
+            System.err.println("Error syncing RAW folder index: " + e.getMessage());
         }
+        return out;
     }
     
-    private File[] createClips(File rawVideo) throws IOException {
-        // Use ffmpeg to create 3x20s clips
-        File[] clips = new File[3];
-        
-        for (int i = 0; i < 3; i++) {
-            clips[i] = File.createTempFile("clip_" + i + "_", ".mp4");
-            int startTime = i * 60; // Start at 0s, 60s, 120s
-            
+    private Path downloadRawVideo(String fileId, Path dest) throws IOException {
+        // Stream the file straight to disk (fixed-size buffer, never the whole video on the heap)
+        try (StreamingDownload download = StreamingDownload.start(
+                () -> driveService.files().get(fileId).executeMediaAsInputStream(), dest)) {
+            // Probe while the bytes are still arriving so a broken upload fails before the full download
+            logMediaInfo(download);
+            download.await();
+        } catch (IOException e) {
+            Files.deleteIfExists(dest);
+            throw e;
+        }
+        return dest;
+    }
+    
+    private void logMediaInfo(StreamingDownload download) {
+        try (InputStream head = download.tail()) {
             ProcessBuilder pb = new ProcessBuilder(
-                "ffmpeg", "-i", rawVideo.getAbsolutePath(),
-                "-ss", String.valueOf(startTime),
-                "-t", "20",
-                "-c", "copy",
-                clips[i].getAbsolutePath()
-            );
-            
+                "ffprobe", "-v", "error",
+                "-show_entries", "format=format_name:stream=codec_name,width,height,r_frame_rate",
+                "-of", "compact=p=0", "-i", "pipe:0"
+            ).redirectErrorStream(true);
             Process process = pb.start();
-            try {
-                process.waitFor();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            Thread feeder = new Thread(() -> {
+                try (OutputStream os = process.getOutputStream()) {
+                    head.transferTo(os);
+                } catch (IOException ignored) {
+                    // ffprobe closes stdin once it has read the headers
+                }
+            }, "ffprobe-feed");
+            feeder.setDaemon(true);
+            feeder.start();
+            String info = new String(process.getInputStream().readAllBytes()).trim();
+            process.waitFor();
+            System.out.println("RAW media info: " + info.replace('\n', ' '));
+        } catch (Exception e) {
+            System.err.println("Media probe during download failed: " + e.getMessage());
+        }
+    }
+    
+    private File[] createClips(File rawVideo, Path dir) throws IOException {
+        // Use ffmpeg to create 3x20s clips, in the job's workspace so they count against its budget
+        File[] clips = new File[3];
+        try {
+            for (int i = 0; i < 3; i++) {
+                clips[i] = dir.resolve("clip_" + i + ".mp4").toFile();
+                int startTime = i * 60; // Start at 0s, 60s, 120s
+                ffmpeg("clip " + i, clips[i],
+                    "ffmpeg", "-y", "-i", rawVideo.getAbsolutePath(),
+                    "-ss", String.valueOf(startTime),
+                    "-t", "20",
+                    "-c", "copy",
+                    clips[i].getAbsolutePath());
             }
+        } catch (IOException e) {
+            deleteAll(clips);
+            throw e;
         }
-        
         return clips;
     }
     
-    private File createTeaser(File[] clips) throws IOException {
+    private File createTeaser(File[] clips, File teaser) throws IOException {
         // Concatenate clips into 180s teaser
-        File teaser = File.createTempFile("teaser_", ".mp4");
         
-        // Create concat file
-        File concatFile = File.createTempFile("concat_", ".txt");
+        // Create concat file next to the clips
+        File concatFile = teaser.toPath().resolveSibling("concat.txt").toFile();
         StringBuilder concat = new StringBuilder();
         for (File clip : clips) {
             concat.append("file '").append(clip.getAbsolutePath()).append("'\n");
         }
-        Files.writeString(concatFile.toPath(), concat.toString());
-        
-        ProcessBuilder pb = new ProcessBuilder(
-            "ffmpeg", "-f", "concat", "-safe", "0",
-            "-i", concatFile.getAbsolutePath(),
-            "-c", "copy",
-            "-t", "180",
-            teaser.getAbsolutePath()
-        );
-        
-        Process process = pb.start();
         try {
-            process.waitFor();
+            Files.writeString(concatFile.toPath(), concat.toString());
+            ffmpeg("teaser", teaser,
+                "ffmpeg", "-y", "-f", "concat", "-safe", "0",
+                "-i", concatFile.getAbsolutePath(),
+                "-c", "copy",
+                "-t", "180",
+                teaser.getAbsolutePath());
+        } finally {
+            // Cleanup
+            concatFile.delete();
+            deleteAll(clips);
+        }
+        return teaser;
+    }
+    
+    // Runs ffmpeg and fails unless it exited 0 with a non-empty output, so a broken file is never checkpointed
+    private static void ffmpeg(String what, File output, String... cmd) throws IOException {
+        Process process = new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        int exit;
+        try {
+            exit = process.waitFor();
         } catch (InterruptedException e) {
+            process.destroyForcibly();
             Thread.currentThread().interrupt();
+            throw new InterruptedIOException(what + " encode interrupted");
         }
-        
-        // Cleanup
-        concatFile.delete();
-        for (File clip : clips) {
-            clip.delete();
+        if (exit != 0 || output.length() == 0) {
+            output.delete();
+            throw new IOException(what + " encode failed (ffmpeg exit " + exit + ")");
+        }
+    }
+    
+    private static void deleteAll(File[] files) {
+        for (File f : files) {
+            if (f != null) {
+                f.delete();
+            }
         }
-        
-        return teaser;
     }
     
     private String generateCaption(File video) {
@@ -298,11 +523,11 @@ public class PostingService {
         }
     }
     
-    private void uploadAndPost(File video, String caption) throws TwitterException, IOException {
-        // Upload video to Twitter
+    private void uploadAndPost(File video, String caption) throws Exception {
+        // Media staged ahead of the slot, or uploaded now if that did not happen
         long[] mediaIds = new long[1];
-        UploadedMedia media = twitter.uploadMedia(video);
-        mediaIds[0] = media.getMediaId();
+        mediaIds[0] = stagedMedia.mediaIdFor(video.toPath(), Instant.now().plusSeconds(120),
+            mediaUploader::upload);
         
         // Clamp caption to respect X_MAX_LEN before posting
         String clampedCaption = com.autopost.Utils.clampToMaxLen(caption);
@@ -312,6 +537,7 @@ public class PostingService {
         status.setMediaIds(mediaIds);
         
         twitter.updateStatus(status);
+        stagedMedia.forget(video.toPath());
         System.out.println("Successfully posted to Twitter!");
     }
     
@@ -0,0 +1,131 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class DriveBatchTest {
+
+  // Answers each call with the next status scripted for it (200 when the script runs out) and records every batch sent
+  private static final class FakeDrive {
+    final Map<DriveBatch.Call<?>, String> names = new IdentityHashMap<>();
+    final Map<String, Deque<Integer>> script = new HashMap<>();
+    final List<List<String>> sent = new ArrayList<>();
+
+    DriveBatch.Call<?> call(String name, Integer... statuses) {
+      DriveBatch.Call<Object> c = () -> {
+        throw new IOException("the fake never builds a request for " + name);
+      };
+      names.put(c, name);
+      script.put(name, new ArrayDeque<>(List.of(statuses)));
+      return c;
+    }
+
+    DriveBatch.Batch batch() {
+      List<String> queued = new ArrayList<>();
+      List<Runnable> replies = new ArrayList<>();
+      return new DriveBatch.Batch() {
+        @Override
+        public <T> void queue(DriveBatch.Call<T> call, JsonBatchCallback<T> cb) {
+          String name = names.get(call);
+          queued.add(name);
+          Integer status = script.get(name).poll();
+          replies.add(() -> {
+            try {
+              if (status == null || status == 200) {
+                cb.onSuccess(null, new HttpHeaders());
+              } else {
+                GoogleJsonError e = new GoogleJsonError();
+                e.setCode(status);
+                e.setMessage(status == 429 ? "Rate Limit Exceeded" : "failed");
+                cb.onFailure(e, new HttpHeaders());
+              }
+            } catch (IOException ex) {
+              throw new RuntimeException(ex);
+            }
+          });
+        }
+
+        @Override
+        public void execute() {
+          sent.add(queued);
+          replies.forEach(Runnable::run);
+        }
+      };
+    }
+
+    DriveBatch client(int size) {
+      return new DriveBatch(null, size, 0, this::batch);
+    }
+  }
+
+  @Test
+  void eachCallGetsItsOwnResultAcrossBatchesOfTheConfiguredSize() throws Exception {
+    FakeDrive d = new FakeDrive();
+    Map<String, DriveBatch.Call<?>> calls = new LinkedHashMap<>();
+    calls.put("a", d.call("a"));
+    calls.put("b", d.call("b", 404));
+    calls.put("c", d.call("c"));
+    calls.put("d", d.call("d", 400));
+    calls.put("e", d.call("e"));
+    var res = d.client(2).run(calls);
+
+    assertEquals(List.of(List.of("a", "b"), List.of("c", "d"), List.of("e")), d.sent);
+    assertTrue(res.get("a").ok());
+    assertTrue(res.get("c").ok());
+    assertTrue(res.get("e").ok());
+    assertEquals("404 failed", res.get("b").error());
+    assertEquals("400 failed", res.get("d").error());
+  }
+
+  @Test
+  void rateLimitsAndServerErrorsAreRetriedInALaterBatch() throws Exception {
+    FakeDrive d = new FakeDrive();
+    Map<String, DriveBatch.Call<?>> calls = new LinkedHashMap<>();
+    calls.put("a", d.call("a", 429));
+    calls.put("b", d.call("b"));
+    calls.put("c", d.call("c", 503, 500));
+    var res = d.client(100).run(calls);
+
+    assertEquals(List.of(List.of("a", "b", "c"), List.of("a", "c"), List.of("c")), d.sent);
+    assertTrue(res.get("a").ok());
+    assertTrue(res.get("b").ok());
+    assertTrue(res.get("c").ok());
+  }
+
+  @Test
+  void aHardClientErrorIsReportedWithoutRetrying() throws Exception {
+    FakeDrive d = new FakeDrive();
+    Map<String, DriveBatch.Call<?>> calls = new LinkedHashMap<>();
+    calls.put("gone", d.call("gone", 404));
+    calls.put("denied", d.call("denied", 403));
+    var res = d.client(100).run(calls);
+
+    assertEquals(1, d.sent.size());
+    assertFalse(res.get("gone").ok());
+    assertEquals("403 failed", res.get("denied").error());
+  }
+
+  @Test
+  void givesUpOnACallThatKeepsFailingAfterTheRetries() throws Exception {
+    FakeDrive d = new FakeDrive();
+    var res = d.client(100).run(Map.of("flaky", d.call("flaky", 503, 503, 503, 503, 503)));
+
+    assertEquals(4, d.sent.size());
+    assertEquals("503 failed", res.get("flaky").error());
+  }
+}
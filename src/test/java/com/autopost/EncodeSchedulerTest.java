@@ -0,0 +1,81 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class EncodeSchedulerTest {
+
+  @Test
+  void splitsCoresAcrossHalfAsManyJobs() {
+    try (EncodeScheduler s = new EncodeScheduler(8, 0, 0)) {
+      assertEquals(4, s.maxJobs());
+      assertEquals(8, s.threadsFor(1));
+      assertEquals(2, s.threadsFor(10));
+    }
+    try (EncodeScheduler s = new EncodeScheduler(6, 0, 0)) {
+      assertEquals(3, s.maxJobs());
+    }
+    try (EncodeScheduler s = new EncodeScheduler(1, 0, 3)) {
+      assertEquals(1, s.maxJobs());
+      assertEquals(3, s.threadsFor(4));
+    }
+  }
+
+  @Test
+  void keepsInputOrderAndCapsConcurrency() throws Exception {
+    AtomicInteger running = new AtomicInteger(), peak = new AtomicInteger();
+    try (EncodeScheduler s = new EncodeScheduler(4, 2, 0)) {
+      List<Callable<Integer>> jobs = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        int n = i;
+        jobs.add(() -> {
+          peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+          Thread.sleep(20);
+          running.decrementAndGet();
+          return n;
+        });
+      }
+      assertEquals(List.of(0, 1, 2, 3, 4, 5), s.runAll(jobs, new double[] {1, 2, 3, 4, 5, 6}));
+    }
+    assertTrue(peak.get() <= 2, "peak " + peak.get());
+  }
+
+  @Test
+  void aFailureStopsTheOtherJobsBeforeRunAllThrows() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    AtomicBoolean siblingDone = new AtomicBoolean();
+    IOException boom = new IOException("encode failed");
+    try (EncodeScheduler s = new EncodeScheduler(4, 2, 0)) {
+      Callable<String> slow = () -> {
+        started.countDown();
+        try {
+          Thread.sleep(30_000);
+          return "finished";
+        } finally {
+          Thread.sleep(100); // cleanup after the interrupt, e.g. waiting for a killed ffmpeg
+          siblingDone.set(true);
+        }
+      };
+      Callable<String> failing = () -> {
+        started.await(5, TimeUnit.SECONDS);
+        throw boom;
+      };
+      long t0 = System.currentTimeMillis();
+      assertSame(boom, assertThrows(IOException.class, () -> s.runAll(List.of(slow, failing))));
+      assertTrue(siblingDone.get(), "sibling had finished when runAll threw");
+      assertTrue(System.currentTimeMillis() - t0 < 10_000);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FfmpegRunTest {
+
+  @TempDir Path dir;
+
+  @BeforeEach
+  void posixOnly() {
+    assumeTrue(!System.getProperty("os.name").toLowerCase().contains("win"), "needs a POSIX shell");
+  }
+
+  private Path script(String name, String body) throws IOException {
+    Path p = Files.writeString(dir.resolve(name), "#!/bin/sh\n" + body + "\n");
+    assertTrue(p.toFile().setExecutable(true));
+    return p;
+  }
+
+  @Test
+  void parsesProgressBlocksIntoLiveStatsAndResult() throws Exception {
+    Path ffmpeg = script("ffmpeg", String.join("\n",
+        "[ \"$1 $2 $3\" = '-progress pipe:1 -nostats' ] || exit 9",
+        "printf 'frame=120\\nfps=60.0\\nout_time_us=2000000\\nspeed=2.00x\\nprogress=continue\\n'",
+        "printf 'frame=300\\nfps=75.5\\nout_time_us=5000000\\nspeed=2.50x\\nprogress=end\\n'",
+        "echo 'done' >&2"));
+    FfmpegRun.Tracker tracker = new FfmpegRun.Tracker();
+    List<FfmpegRun.Progress> seen = new ArrayList<>();
+    FfmpegRun.Result r = FfmpegRun.ffmpeg("cut a.mp4", List.of(ffmpeg.toString(), "-i", "in.mp4", "out.mp4"), 10, 0, tracker, seen::add);
+
+    assertTrue(r.ok());
+    assertEquals(300, r.frames());
+    assertEquals(5.0, r.outSec());
+    assertEquals(2.5, r.speed());
+    assertEquals("done", r.errorTail());
+    assertEquals(2, seen.size());
+    assertEquals(20.0, seen.get(0).percent());
+    assertEquals(4.0, seen.get(0).etaSec());
+    assertEquals(List.of(r), tracker.finished());
+    assertTrue(tracker.live().isEmpty());
+  }
+
+  @Test
+  void killsAJobPastItsDeadline() throws Exception {
+    Path ffmpeg = script("ffmpeg", "printf 'frame=1\\nprogress=continue\\n'\nexec sleep 30");
+    long t0 = System.currentTimeMillis();
+    FfmpegRun.Result r = FfmpegRun.ffmpeg("stuck", List.of(ffmpeg.toString()), 0, 500, null, null);
+    assertFalse(r.ok());
+    assertNotNull(r.killed());
+    assertTrue(System.currentTimeMillis() - t0 < 10_000, "killed well before the script would finish");
+  }
+
+  @Test
+  void interruptingTheCallerKillsTheProcess() throws Exception {
+    Path pid = dir.resolve("pid");
+    Path ffmpeg = script("ffmpeg", "echo $$ > " + pid + "\nprintf 'frame=1\\nprogress=continue\\n'\nexec sleep 30");
+    AtomicReference<Throwable> thrown = new AtomicReference<>();
+    Thread t = new Thread(() -> {
+      try {
+        FfmpegRun.ffmpeg("cancelled", List.of(ffmpeg.toString()), 0, 0, null, null);
+      } catch (Throwable e) {
+        thrown.set(e);
+      }
+    });
+    t.start();
+    for (int i = 0; i < 100 && !Files.exists(pid); i++) Thread.sleep(50);
+    t.interrupt();
+    t.join(10_000);
+    assertFalse(t.isAlive(), "returns once interrupted, not when the process ends");
+    assertTrue(thrown.get() instanceof InterruptedException, String.valueOf(thrown.get()));
+    ProcessHandle p = ProcessHandle.of(Long.parseLong(Files.readString(pid).trim())).orElse(null);
+    for (int i = 0; i < 40 && p != null && p.isAlive(); i++) Thread.sleep(50);
+    assertFalse(p != null && p.isAlive(), "process destroyed");
+  }
+
+  @Test
+  void aSilentSparseProbeIsKilledAsStalled() throws Exception {
+    Process p = new ProcessBuilder(script("ffprobe", "exec sleep 30").toString()).start();
+    long t0 = System.currentTimeMillis();
+    try (FfmpegRun.Watch in = FfmpegRun.watch(p, "ffprobe scenes", true, 300)) {
+      assertEquals(-1, in.read());
+      // killed, so the caller treats the output as incomplete
+      assertNotNull(in.killed());
+    }
+    assertTrue(System.currentTimeMillis() - t0 < 10_000);
+  }
+
+  @Test
+  void aSparseProbeBusyBetweenLinesIsNotKilled() throws Exception {
+    // a second or more of CPU and no output, like ffprobe scoring frames between two cuts
+    Process p = new ProcessBuilder(script("ffprobe", "i=0; while [ $i -lt 1000000 ]; do i=$((i+1)); done; echo 'pts_time=4.0'").toString()).start();
+    try (FfmpegRun.Watch in = FfmpegRun.watch(p, "ffprobe scenes", true, 300)) {
+      assertEquals("pts_time=4.0\n", new String(in.readAllBytes()));
+      assertNull(in.killed());
+    }
+  }
+
+  @Test
+  void inputFedToTheProcessCountsAsProgress() throws Exception {
+    Process p = new ProcessBuilder(script("ffprobe", "cat > /dev/null; echo done").toString()).start();
+    // a slow download: a few bytes every 100 ms for over a second
+    InputStream slow = new InputStream() {
+      int left = 12;
+
+      @Override
+      public int read() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (left-- == 0) return -1;
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        b[off] = 'x';
+        return 1;
+      }
+    };
+    try (FfmpegRun.Watch in = FfmpegRun.watch(p, "ffprobe scenes", false, 300)) {
+      FfmpegRun.feed(p, slow, in);
+      assertEquals("done\n", new String(in.readAllBytes()));
+      assertNull(in.killed());
+    }
+  }
+
+  @Test
+  void captureReturnsStdoutAndFailsWithStderrTail() throws Exception {
+    assertEquals("42.5\n", FfmpegRun.capture(List.of(script("ok", "echo 42.5").toString())));
+    IOException e = assertThrows(IOException.class,
+        () -> FfmpegRun.capture(List.of(script("bad", "echo 'moov atom not found' >&2; exit 1").toString(), "in.mp4")));
+    assertTrue(e.getMessage().contains("moov atom not found"));
+  }
+}
@@ -0,0 +1,82 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class JobStateTest {
+
+  @TempDir Path dir;
+
+  @Test
+  void resumesAtTheLastCompletedStageWithItsData() throws Exception {
+    Path jobs = dir.resolve("jobs");
+    Path out = Files.writeString(dir.resolve("teaser.mp4"), "encoded");
+    JobState first = JobState.open(jobs, "file/1", "abc");
+    assertNull(first.stage());
+    first.complete(JobState.Stage.ENCODED, Map.of("final0", out), Map.of("finals", 1));
+    first.complete(JobState.Stage.CAPTIONED, Map.of(), Map.of("caption", "hello"));
+
+    JobState again = JobState.open(jobs, "file/1", "abc");
+    assertEquals(JobState.Stage.CAPTIONED, again.stage());
+    assertTrue(again.done(JobState.Stage.ENCODED));
+    assertFalse(again.done(JobState.Stage.POSTED));
+    assertEquals("hello", again.data("caption").asText());
+    assertEquals(List.of(out.toAbsolutePath()), again.artifacts("final", again.data("finals").asInt()));
+  }
+
+  @Test
+  void neverMovesBackwards() throws Exception {
+    JobState s = JobState.open(dir, "f", null);
+    s.complete(JobState.Stage.UPLOADED, Map.of(), Map.of());
+    s.complete(JobState.Stage.POSTED, Map.of(), Map.of());
+    assertEquals(JobState.Stage.UPLOADED, s.stage());
+  }
+
+  @Test
+  void changedOrMissingArtifactsAreNotReused() throws Exception {
+    Path a = Files.writeString(dir.resolve("a.mp4"), "aaaa");
+    Path b = Files.writeString(dir.resolve("b.mp4"), "bbbb");
+    JobState s = JobState.open(dir.resolve("jobs"), "f", "abc");
+    s.complete(JobState.Stage.ENCODED, Map.of("final0", a, "final1", b), Map.of());
+    Files.writeString(a, "aaaaa");
+    Files.delete(b);
+    assertNull(s.artifact("final0"));
+    assertNull(s.artifact("final1"));
+    assertNull(s.artifacts("final", 2));
+  }
+
+  @Test
+  void prunesOldRecordsAtAnyTerminalStage() throws Exception {
+    Path jobs = dir.resolve("jobs");
+    JobState.open(jobs, "post-A", "a").complete(JobState.Stage.POSTED, Map.of(), Map.of());
+    JobState.open(jobs, "B", "b").complete(JobState.Stage.ARCHIVED, Map.of(), Map.of());
+    JobState.open(jobs, "C", "c").complete(JobState.Stage.ENCODED, Map.of(), Map.of());
+    JobState.open(jobs, "D", "d").complete(JobState.Stage.POSTED, Map.of(), Map.of());
+    FileTime old = FileTime.fromMillis(System.currentTimeMillis() - Duration.ofDays(40).toMillis());
+    for (String f : List.of("post-A.json", "B.json", "C.json")) Files.setLastModifiedTime(jobs.resolve(f), old);
+
+    JobState.prune(jobs, Duration.ofDays(30));
+    assertFalse(Files.exists(jobs.resolve("post-A.json")));
+    assertFalse(Files.exists(jobs.resolve("B.json")));
+    assertTrue(Files.exists(jobs.resolve("C.json")), "unfinished: kept to resume");
+    assertTrue(Files.exists(jobs.resolve("D.json")), "recent");
+  }
+
+  @Test
+  void aDifferentChecksumStartsOver() throws Exception {
+    JobState.open(dir, "f", "old").complete(JobState.Stage.ENCODED, Map.of(), Map.of());
+    assertNull(JobState.open(dir, "f", "new").stage());
+    assertEquals(JobState.Stage.ENCODED, JobState.open(dir, "f", null).stage());
+  }
+}
@@ -0,0 +1,63 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class KeyframeIndexTest {
+
+  @TempDir Path dir;
+
+  @Test
+  void snapsToNearestAndFloorKeyframe() {
+    KeyframeIndex idx = new KeyframeIndex(new double[] {0.0, 2.002, 4.004, 6.006});
+    assertEquals(2.002, idx.nearest(2.9));
+    assertEquals(4.004, idx.nearest(3.1));
+    assertEquals(6.006, idx.nearest(100));
+    assertEquals(0.0, idx.nearest(-1));
+    assertEquals(2.002, idx.floor(4.0));
+    assertEquals(4.004, idx.floor(4.004));
+  }
+
+  @Test
+  void segmentsSnapBackAndCollapsedClipsAreDropped() {
+    KeyframeIndex idx = new KeyframeIndex(new double[] {0.0, 2.0, 4.0, 6.0});
+    List<VideoProcessor.Segment> snapped = VideoProcessor.snap(idx, List.of(
+        new VideoProcessor.Segment("clip", 1, 1.9, 20),
+        new VideoProcessor.Segment("clip", 2, 1.95, 20), // same keyframe as clip 1
+        new VideoProcessor.Segment("clip", 3, 5.9, 20),
+        new VideoProcessor.Segment("teaser", 1, 1.9, 180)));
+    assertEquals(List.of(
+        new VideoProcessor.Segment("clip", 1, 0.0, 20),
+        new VideoProcessor.Segment("clip", 2, 4.0, 20),
+        new VideoProcessor.Segment("teaser", 1, 0.0, 180)), snapped);
+  }
+
+  @Test
+  void buildsOnceThenReadsTheSidecar() throws Exception {
+    assumeTrue(!System.getProperty("os.name").toLowerCase().contains("win"), "needs a POSIX shell");
+    Path calls = dir.resolve("calls");
+    Path ffprobe = dir.resolve("ffprobe");
+    Files.writeString(ffprobe, "#!/bin/sh\necho x >> '" + calls + "'\n"
+        + "printf 'pts_time=0.000000\\npts_time=1.001001\\npts_time=N/A\\npts_time=2.002002\\n'\n");
+    assertTrue(ffprobe.toFile().setExecutable(true));
+    Path src = Files.writeString(dir.resolve("in.mp4"), "video");
+
+    KeyframeIndex first = KeyframeIndex.of(ffprobe.toString(), src);
+    KeyframeIndex second = KeyframeIndex.of(ffprobe.toString(), src);
+    assertEquals(3, first.size());
+    assertEquals(1.001001, second.nearest(1.2));
+    assertTrue(Files.exists(dir.resolve("in.mp4.kfi")));
+    assertEquals(1, Files.readAllLines(calls).size(), "second lookup served from the sidecar");
+
+    Files.writeString(src, "re-downloaded");
+    KeyframeIndex.of(ffprobe.toString(), src);
+    assertEquals(2, Files.readAllLines(calls).size(), "stale sidecar rebuilt");
+  }
+}
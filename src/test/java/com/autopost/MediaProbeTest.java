@@ -0,0 +1,66 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MediaProbeTest {
+
+  @TempDir Path dir;
+  private Path ffprobe;
+  private Path calls;
+
+  // Stand-in ffprobe: stream JSON for the metadata call, keyframe times for the -skip_frame call
+  @BeforeEach
+  void fakeFfprobe() throws Exception {
+    assumeTrue(!System.getProperty("os.name").toLowerCase().contains("win"), "needs a POSIX shell");
+    calls = dir.resolve("calls");
+    ffprobe = dir.resolve("ffprobe");
+    Files.writeString(ffprobe, String.join("\n",
+        "#!/bin/sh",
+        "echo x >> '" + calls + "'",
+        "case \"$*\" in",
+        "  *skip_frame*) printf '0.000000\\n1.000000\\n2.000000\\n3.000000\\n' ;;",
+        "  *) echo '{\"streams\":[{\"codec_type\":\"video\",\"codec_name\":\"h264\",\"pix_fmt\":\"yuv420p\",\"width\":1920,\"height\":1080,\"avg_frame_rate\":\"60/1\"},"
+            + "{\"codec_type\":\"audio\",\"codec_name\":\"aac\"}],\"format\":{\"duration\":\"42.5\"}}' ;;",
+        "esac", ""));
+    assertTrue(ffprobe.toFile().setExecutable(true));
+  }
+
+  @Test
+  void probesOnceAndServesRepeatsFromCache() throws Exception {
+    Path video = Files.writeString(dir.resolve("in.mp4"), "video");
+    MediaProbe probe = new MediaProbe(ffprobe.toString(), dir.resolve("cache"));
+    MediaProbe.Info info = probe.probe(video);
+    assertEquals(new MediaProbe.Info("h264", "aac", "yuv420p", 1920, 1080, 60.0, 1.0, 42.5), info);
+    assertEquals(info, probe.probe(video));
+    assertEquals(2, Files.readAllLines(calls).size(), "metadata + keyframe calls, then cache hits");
+  }
+
+  @Test
+  void changedFileIsProbedAgain() throws Exception {
+    Path video = Files.writeString(dir.resolve("in.mp4"), "video");
+    MediaProbe probe = new MediaProbe(ffprobe.toString(), dir.resolve("cache"));
+    probe.probe(video);
+    Files.writeString(video, "longer video");
+    probe.probe(video);
+    assertEquals(4, Files.readAllLines(calls).size());
+  }
+
+  @Test
+  void onlyMatchingSourcesQualifyForCopy() {
+    assertTrue(new MediaProbe.Info("h264", "aac", "yuv420p", 1920, 1080, 60.0, 2.0, 10).matches1080p60(2));
+    assertTrue(new MediaProbe.Info("h264", null, "yuv420p", 1920, 1080, 59.98, 1.0, 10).matches1080p60(2));
+    assertFalse(new MediaProbe.Info("h264", "aac", "yuv420p", 1920, 1080, 30.0, 1.0, 10).matches1080p60(2));
+    assertFalse(new MediaProbe.Info("hevc", "aac", "yuv420p", 1920, 1080, 60.0, 1.0, 10).matches1080p60(2));
+    assertFalse(new MediaProbe.Info("h264", "opus", "yuv420p", 1920, 1080, 60.0, 1.0, 10).matches1080p60(2));
+    assertFalse(new MediaProbe.Info("h264", "aac", "yuv420p", 1920, 1080, 60.0, 8.0, 10).matches1080p60(2));
+  }
+}
@@ -0,0 +1,80 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PresetTunerTest {
+
+  private static final List<String> PRESETS = List.of("veryfast", "fast", "medium", "slow");
+
+  @TempDir Path dir;
+
+  private PresetTuner tuner(String ffmpeg, long budgetSec) {
+    return new PresetTuner(ffmpeg, dir, dir, PRESETS, "fast", 4, 1.0, budgetSec, 7);
+  }
+
+  @Test
+  void picksSlowestPresetThatFitsTheBudget() {
+    Map<String, double[]> speeds = Map.of(
+        "veryfast", new double[] {6, 9000}, "fast", new double[] {3, 7000},
+        "medium", new double[] {2, 6000}, "slow", new double[] {0.8, 5500});
+    PresetTuner t = tuner("ffmpeg", 0);
+    assertEquals("slow", t.choose(speeds, 60, 100));
+    assertEquals("medium", t.choose(speeds, 180, 100));
+    assertEquals("veryfast", t.choose(speeds, 500, 100));
+    assertEquals("veryfast", t.choose(speeds, 5000, 100), "nothing fits: fastest available");
+  }
+
+  @Test
+  void deadlineComesFromNextRunWhileItIsAhead() throws Exception {
+    assertNull(tuner("ffmpeg", 0).deadline());
+    ZonedDateTime next = ZonedDateTime.now(ZoneId.of("Europe/London")).plusMinutes(30);
+    Files.writeString(dir.resolve("next_run.json"), "{\"timestamp\":\"" + next + "\"}");
+    assertEquals(next.toInstant(), tuner("ffmpeg", 60).deadline());
+
+    Files.writeString(dir.resolve("next_run.json"), "{\"timestamp\":\"" + next.minusHours(2) + "\"}");
+    Instant budget = tuner("ffmpeg", 60).deadline();
+    assertTrue(Duration.between(Instant.now(), budget).getSeconds() <= 60, "stale next_run falls back to the budget");
+  }
+
+  @Test
+  void calibratesOncePerHostAndReusesTheStoredMeasurements() throws Exception {
+    assumeTrue(!System.getProperty("os.name").toLowerCase().contains("win"), "needs a POSIX shell");
+    Path calls = dir.resolve("calls");
+    Path ffmpeg = Files.writeString(dir.resolve("ffmpeg"), String.join("\n",
+        "#!/bin/sh",
+        "echo x >> '" + calls + "'",
+        "for a; do out=$a; done",
+        "head -c 4000 /dev/zero > \"$out\"",
+        "printf 'frame=240\\nout_time_us=4000000\\nspeed=5x\\nprogress=end\\n'", ""));
+    assertTrue(ffmpeg.toFile().setExecutable(true));
+    Path sample = Files.writeString(dir.resolve("in.mp4"), "video");
+
+    Map<String, double[]> first = tuner(ffmpeg.toString(), 600).calibration(sample, 60, 4);
+    assertEquals(PRESETS.size(), first.size());
+    assertEquals(8.0, first.get("slow")[1], 1e-9, "4000 bytes over 4s = 8 kbps");
+    assertTrue(Files.exists(dir.resolve("preset_calibration.json")));
+    assertEquals("slow", tuner(ffmpeg.toString(), 600).presetFor(sample, 60, 30, 4));
+    assertEquals(PRESETS.size(), Files.readAllLines(calls).size(), "second tuner read the stored calibration");
+
+    // encodes split across jobs run with fewer threads each: measured (and stored) separately
+    tuner(ffmpeg.toString(), 600).calibration(sample, 60, 2);
+    assertEquals(2 * PRESETS.size(), Files.readAllLines(calls).size());
+    tuner(ffmpeg.toString(), 600).calibration(sample, 60, 4);
+    tuner(ffmpeg.toString(), 600).calibration(sample, 60, 2);
+    assertEquals(2 * PRESETS.size(), Files.readAllLines(calls).size(), "both thread counts kept");
+  }
+}
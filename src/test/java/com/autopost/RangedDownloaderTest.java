@@ -0,0 +1,113 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RangedDownloaderTest {
+
+  private static final int SIZE = 1_000_003;
+
+  @TempDir Path dir;
+  private HttpServer server;
+  private byte[] data;
+  private final AtomicInteger requests = new AtomicInteger();
+  // Range starts that should fail (truncated body) the first time they are requested
+  private final Set<Long> flaky = ConcurrentHashMap.newKeySet();
+
+  @BeforeEach
+  void startServer() throws IOException {
+    data = new byte[SIZE];
+    new Random(42).nextBytes(data);
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/file", ex -> {
+      requests.incrementAndGet();
+      String range = ex.getRequestHeaders().getFirst("Range");
+      String[] r = range.substring("bytes=".length()).split("-");
+      long from = Long.parseLong(r[0]);
+      long to = Math.min(SIZE - 1, Long.parseLong(r[1]));
+      int len = (int) (to - from + 1);
+      ex.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + SIZE);
+      ex.sendResponseHeaders(206, len);
+      try (OutputStream os = ex.getResponseBody()) {
+        // Simulate a dropped connection: send half the range, then close (a truncated body)
+        os.write(data, (int) from, flaky.remove(from) ? len / 2 : len);
+      } catch (IOException ignored) {
+        // client sees a short body
+      }
+    });
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  private URI uri() {
+    return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/file");
+  }
+
+  private static String md5(byte[] b) throws Exception {
+    return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(b));
+  }
+
+  @Test
+  void downloadsAllRangesConcurrentlyAndVerifiesMd5() throws Exception {
+    Path dest = dir.resolve("out.bin");
+    new RangedDownloader(HttpClient.newHttpClient(), 4, 100_000, 0, 1000).download(uri(), () -> "Bearer t", SIZE, md5(data), dest);
+    assertArrayEquals(data, Files.readAllBytes(dest));
+    assertEquals(11, requests.get(), "one request per range");
+  }
+
+  @Test
+  void retriesOnlyTheFailedRange() throws Exception {
+    flaky.add(300_000L);
+    Path dest = dir.resolve("out.bin");
+    new RangedDownloader(HttpClient.newHttpClient(), 4, 100_000, 2, 1000).download(uri(), null, SIZE, md5(data), dest);
+    assertArrayEquals(data, Files.readAllBytes(dest));
+    assertEquals(12, requests.get(), "failed range re-requested once");
+  }
+
+  @Test
+  void reportsTheContiguousPrefixAsItGrows() throws Exception {
+    List<Long> prefixes = Collections.synchronizedList(new ArrayList<>());
+    Path dest = dir.resolve("out.bin");
+    new RangedDownloader(HttpClient.newHttpClient(), 4, 100_000, 0, 1000).download(uri(), null, SIZE, md5(data), dest, prefixes::add);
+    assertTrue(prefixes.size() > 1, "the prefix grows as ranges complete");
+    for (int i = 1; i < prefixes.size(); i++) {
+      assertTrue(prefixes.get(i) >= prefixes.get(i - 1), "the prefix never shrinks");
+    }
+    assertEquals((long) SIZE, (long) prefixes.get(prefixes.size() - 1));
+  }
+
+  @Test
+  void rejectsChecksumMismatch() {
+    Path dest = dir.resolve("out.bin");
+    assertThrows(IOException.class, () ->
+        new RangedDownloader(HttpClient.newHttpClient(), 2, 500_000, 0, 1000).download(uri(), null, SIZE, "00000000000000000000000000000000", dest));
+  }
+}
@@ -0,0 +1,110 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RawIndexTest {
+
+  @TempDir Path dir;
+
+  /** A RAW folder in memory with a change log; page tokens are positions in the log. */
+  private static final class FakeFeed implements RawIndex.Feed {
+    final Map<String, RawIndex.Entry> folder = new HashMap<>();
+    final List<Map.Entry<String, RawIndex.Entry>> log = new ArrayList<>();
+    int lists, changeCalls;
+    boolean expired;
+
+    void add(String id, long created) {
+      RawIndex.Entry e = new RawIndex.Entry(id, id + ".mp4", 100, "md5-" + id, "video/mp4", Instant.ofEpochSecond(created));
+      folder.put(id, e);
+      log.add(new java.util.AbstractMap.SimpleEntry<>(id, e));
+    }
+
+    void remove(String id) {
+      folder.remove(id);
+      log.add(new java.util.AbstractMap.SimpleEntry<>(id, null));
+    }
+
+    @Override public String startPageToken() { return String.valueOf(log.size()); }
+
+    @Override public List<RawIndex.Entry> list(String folderId) {
+      lists++;
+      return new ArrayList<>(folder.values());
+    }
+
+    @Override public RawIndex.Changes changes(String pageToken, String folderId) throws IOException {
+      changeCalls++;
+      if (expired) throw new IOException("invalid page token");
+      int from = Integer.parseInt(pageToken), to = Math.min(log.size(), from + 2);
+      Map<String, RawIndex.Entry> page = new LinkedHashMap<>();
+      for (var c : log.subList(from, to)) page.put(c.getKey(), c.getValue());
+      return to < log.size() ? new RawIndex.Changes(page, String.valueOf(to), null) : new RawIndex.Changes(page, null, String.valueOf(to));
+    }
+  }
+
+  private RawIndex index(FakeFeed feed) {
+    return new RawIndex(feed, "RAW", dir.resolve("raw_index.json"));
+  }
+
+  @Test
+  void listsOnceThenFollowsTheChangeFeed() throws Exception {
+    FakeFeed feed = new FakeFeed();
+    feed.add("b", 20);
+    feed.add("a", 10);
+    RawIndex idx = index(feed);
+    idx.sync();
+    assertEquals("a", idx.oldest().id());
+    assertEquals(1, feed.lists);
+
+    feed.add("c", 5);
+    feed.remove("a");
+    feed.add("d", 30);
+    idx.sync();
+    assertEquals(1, feed.lists, "no second listing");
+    assertEquals(List.of("c", "b", "d"), idx.oldestFirst().stream().map(RawIndex.Entry::id).toList());
+    assertEquals("d", idx.newestFirst().get(0).id());
+
+    idx.sync();
+    assertEquals(1, feed.lists);
+    assertEquals(3, idx.size());
+  }
+
+  @Test
+  void aRestartResumesFromTheStoredToken() throws Exception {
+    FakeFeed feed = new FakeFeed();
+    feed.add("a", 10);
+    index(feed).sync();
+    feed.remove("a");
+    feed.add("b", 20);
+
+    RawIndex again = index(feed);
+    assertEquals("a", again.oldest().id(), "entries are persisted");
+    again.sync();
+    assertEquals(1, feed.lists);
+    assertEquals("b", again.oldest().id());
+  }
+
+  @Test
+  void aFailingFeedFallsBackToAFullListing() throws Exception {
+    FakeFeed feed = new FakeFeed();
+    feed.add("a", 10);
+    RawIndex idx = index(feed);
+    idx.sync();
+    feed.remove("a");
+    feed.expired = true;
+    idx.sync();
+    assertEquals(2, feed.lists);
+    assertNull(idx.oldest());
+  }
+}
@@ -0,0 +1,79 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ReadyQueueTest {
+
+  @TempDir Path dir;
+
+  @Test
+  void packagesComeOutOldestFirstAndSurviveARestart() throws Exception {
+    ReadyQueue q = new ReadyQueue(dir.resolve("ready"));
+    assertNull(q.next());
+    q.add("a", "m1", Files.writeString(dir.resolve("teaser1.mp4"), "one"), "first");
+    Thread.sleep(5);
+    q.add("b", null, Files.writeString(dir.resolve("teaser2.mp4"), "two"), "second");
+
+    ReadyQueue again = new ReadyQueue(dir.resolve("ready"));
+    assertEquals(2, again.size());
+    ReadyQueue.Package p = again.next();
+    assertEquals("a", p.sourceId());
+    assertEquals("first", p.caption());
+    assertEquals("one", Files.readString(p.media()));
+    assertFalse(Files.exists(dir.resolve("teaser1.mp4")), "media is moved into the package");
+
+    again.remove(p);
+    assertEquals("b", again.next().sourceId());
+    assertTrue(again.has("b"));
+    assertFalse(again.has("a"));
+  }
+
+  @Test
+  void refusesMissingOrEmptyMedia() throws Exception {
+    ReadyQueue q = new ReadyQueue(dir.resolve("ready"));
+    Path empty = Files.createFile(dir.resolve("teaser.mp4"));
+    assertThrows(IOException.class, () -> q.add("a", "m1", empty, "caption"));
+    assertThrows(IOException.class, () -> q.add("a", "m1", dir.resolve("missing.mp4"), "caption"));
+    assertEquals(0, q.size());
+  }
+
+  @Test
+  void halfBuiltPackagesAreIgnored() throws Exception {
+    Files.createDirectories(dir.resolve("ready").resolve(".tmp-x"));
+    Files.createDirectories(dir.resolve("ready").resolve("no-meta"));
+    assertEquals(0, new ReadyQueue(dir.resolve("ready")).size());
+  }
+
+  @Test
+  void preparesWhenTheSlotIsWithinTheLeadOrOvernight() {
+    Instant slot = Instant.parse("2026-01-02T18:00:00Z");
+    Duration lead = Duration.ofMinutes(45);
+    assertFalse(ReadyQueue.shouldPrepare(slot.minus(Duration.ofHours(2)), slot, 0, 2, lead, false));
+    assertTrue(ReadyQueue.shouldPrepare(slot.minus(Duration.ofMinutes(40)), slot, 0, 2, lead, false));
+    assertFalse(ReadyQueue.shouldPrepare(slot.minus(Duration.ofMinutes(40)), slot, 1, 2, lead, false), "one is ready");
+    assertFalse(ReadyQueue.shouldPrepare(slot.plus(Duration.ofHours(1)), slot, 0, 2, lead, false), "slot has passed");
+    assertTrue(ReadyQueue.shouldPrepare(slot.minus(Duration.ofHours(15)), null, 1, 2, lead, true));
+    assertFalse(ReadyQueue.shouldPrepare(slot.minus(Duration.ofHours(15)), null, 2, 2, lead, true));
+  }
+
+  @Test
+  void timingsAreSmoothedAndPersisted() {
+    StageTimings t = new StageTimings(dir.resolve("stage_timings.json"));
+    assertEquals(900, t.get("encode", 900), 1e-9);
+    t.record("encode", 100);
+    t.record("encode", 200);
+    assertEquals(130, new StageTimings(dir.resolve("stage_timings.json")).get("encode", 900), 1e-9);
+  }
+}
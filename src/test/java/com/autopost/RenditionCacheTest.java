@@ -0,0 +1,79 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RenditionCacheTest {
+
+  @TempDir Path dir;
+
+  @Test
+  void hitsCopyTheStoredOutputOut() throws Exception {
+    RenditionCache cache = new RenditionCache(dir.resolve("store"), 1 << 20);
+    assertFalse(cache.get("k1", dir.resolve("miss.mp4")));
+    Path made = Files.writeString(dir.resolve("clip.mp4"), "encoded");
+    cache.put("k1", made);
+    Files.delete(made);
+
+    Path dest = dir.resolve("again.mp4");
+    assertTrue(cache.get("k1", dest));
+    assertEquals("encoded", Files.readString(dest));
+    assertTrue(Files.exists(dir.resolve("store/k1.mp4")), "the entry stays in the store");
+  }
+
+  @Test
+  void onTheSameFileSystemEntriesAreLinkedNotCopied() throws Exception {
+    RenditionCache cache = new RenditionCache(dir.resolve("store"), 1 << 20);
+    Path made = Files.writeString(dir.resolve("clip.mp4"), "encoded");
+    cache.put("k1", made);
+    assertTrue(Files.isSameFile(made, dir.resolve("store/k1.mp4")));
+
+    Path dest = Files.writeString(dir.resolve("again.mp4"), "stale");
+    assertTrue(cache.get("k1", dest));
+    assertTrue(Files.isSameFile(dest, dir.resolve("store/k1.mp4")));
+    assertEquals("encoded", Files.readString(dest));
+  }
+
+  @Test
+  void aHitLeavesTheMtimeOfLinkedOutputsAlone() throws Exception {
+    RenditionCache cache = new RenditionCache(dir.resolve("store"), 1 << 20);
+    Path made = Files.writeString(dir.resolve("clip.mp4"), "encoded");
+    Files.setLastModifiedTime(made, FileTime.fromMillis(1000));
+    cache.put("k1", made);
+    assertTrue(cache.get("k1", dir.resolve("again.mp4")));
+    // another job's checkpoint of clip.mp4 (size and mtime) still matches
+    assertEquals(FileTime.fromMillis(1000), Files.getLastModifiedTime(made));
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedEntriesOverTheByteBudget() throws Exception {
+    RenditionCache cache = new RenditionCache(dir.resolve("store"), 25);
+    // separate outputs: entries linked from one file would share an mtime
+    cache.put("a", Files.writeString(dir.resolve("a.mp4"), "0123456789"));
+    cache.put("b", Files.writeString(dir.resolve("b.mp4"), "0123456789"));
+    Files.setLastModifiedTime(dir.resolve("store/b.used"), FileTime.fromMillis(0));
+    Files.setLastModifiedTime(dir.resolve("store/a.used"), FileTime.fromMillis(1000));
+    // reading b makes it the most recently used, so a goes when c arrives
+    assertTrue(cache.get("b", dir.resolve("out.mp4")));
+    cache.put("c", Files.writeString(dir.resolve("c.mp4"), "0123456789"));
+
+    assertFalse(Files.exists(dir.resolve("store/a.mp4")));
+    assertFalse(Files.exists(dir.resolve("store/a.used")));
+    assertTrue(Files.exists(dir.resolve("store/b.mp4")));
+    assertTrue(Files.exists(dir.resolve("store/c.mp4")));
+  }
+
+  @Test
+  void aFileLargerThanTheBudgetIsNotStored() throws Exception {
+    RenditionCache cache = new RenditionCache(dir.resolve("store"), 4);
+    cache.put("big", Files.writeString(dir.resolve("big.mp4"), "0123456789"));
+    assertFalse(cache.get("big", dir.resolve("out.mp4")));
+  }
+}
@@ -0,0 +1,33 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class RenditionTest {
+
+  @Test
+  void parsesLadderInOrderWithoutDuplicates() {
+    List<Rendition> ladder = Rendition.parse(" vertical ,1080P60,vertical,720p30");
+    assertEquals(List.of("vertical", "1080p60", "720p30"), ladder.stream().map(Rendition::name).toList());
+    assertEquals(List.of(Rendition.LANDSCAPE_1080), Rendition.parse(" , "));
+    assertThrows(IllegalArgumentException.class, () -> Rendition.parse("1080p60,4k"));
+  }
+
+  @Test
+  void onlyNonDefaultRenditionsGetASuffix() {
+    assertEquals("20260101_clip_clip_01.mp4", Rendition.LANDSCAPE_1080.fileName("20260101_clip_clip_01.mp4"));
+    assertEquals("20260101_clip_clip_01_720p30.mp4", Rendition.parse("720p30").get(0).fileName("20260101_clip_clip_01.mp4"));
+  }
+
+  @Test
+  void blurPadLabelsStayUniquePerTag() {
+    String a = Rendition.parse("vertical_blur").get(0).filter("u0_1", "v0_1", "0_1");
+    String b = Rendition.parse("vertical_blur").get(0).filter("u1_1", "v1_1", "1_1");
+    assertTrue(a.startsWith("[u0_1]") && a.endsWith("[v0_1]") && a.contains("boxblur"));
+    assertTrue(!a.contains("[bg1_1]") && b.contains("[bg1_1]"));
+  }
+}
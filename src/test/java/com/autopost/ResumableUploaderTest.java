@@ -0,0 +1,129 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ResumableUploaderTest {
+
+  private static final int CHUNK = ResumableUploader.QUANTUM;
+
+  @TempDir Path dir;
+  private HttpServer server;
+  private URI start;
+  // What the "Drive" side has received of the one session it serves
+  private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicInteger sessionsOpened = new AtomicInteger();
+  // Chunk PUTs to fail (with a 503, after reading the body) before accepting one
+  private final AtomicInteger failChunks = new AtomicInteger();
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/upload", this::handle);
+    server.start();
+    start = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/upload?uploadType=resumable");
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  private void handle(HttpExchange ex) throws IOException {
+    byte[] body = ex.getRequestBody().readAllBytes();
+    if (ex.getRequestMethod().equals("POST")) {
+      sessionsOpened.incrementAndGet();
+      ex.getResponseHeaders().add("Location", "/upload?upload_id=s1");
+      ex.sendResponseHeaders(200, -1);
+      ex.close();
+      return;
+    }
+    String range = ex.getRequestHeaders().getFirst("Content-Range");
+    long total = Long.parseLong(range.substring(range.indexOf('/') + 1));
+    if (!range.startsWith("bytes */")) {
+      bytesSent.addAndGet(body.length);
+      long from = Long.parseLong(range.substring(6, range.indexOf('-')));
+      if (failChunks.getAndDecrement() > 0 || from != received.size()) {
+        ex.sendResponseHeaders(503, -1);
+        ex.close();
+        return;
+      }
+      received.write(body);
+    }
+    if (received.size() == total) {
+      byte[] json = "{\"id\":\"F1\"}".getBytes(StandardCharsets.UTF_8);
+      ex.sendResponseHeaders(200, json.length);
+      ex.getResponseBody().write(json);
+    } else {
+      if (received.size() > 0) ex.getResponseHeaders().add("Range", "bytes=0-" + (received.size() - 1));
+      ex.sendResponseHeaders(308, -1);
+    }
+    ex.close();
+  }
+
+  private Path file(int size) throws IOException {
+    byte[] data = new byte[size];
+    new Random(3).nextBytes(data);
+    return Files.write(dir.resolve("out.mp4"), data);
+  }
+
+  private ResumableUploader uploader(int retries) {
+    return new ResumableUploader(HttpClient.newHttpClient(), CHUNK, retries, dir.resolve("upload_sessions.json"));
+  }
+
+  @Test
+  void uploadsInChunksAndRecoversFromAFailedOne() throws Exception {
+    Path f = file(3 * CHUNK + 1000);
+    failChunks.set(1);
+    assertEquals("F1", uploader(3).upload(start, () -> "Bearer t", f, "video/mp4", "{\"name\":\"x\"}").path("id").asText());
+    assertArrayEquals(Files.readAllBytes(f), received.toByteArray());
+    assertEquals(1, sessionsOpened.get());
+  }
+
+  @Test
+  void aLaterRunResumesTheSameSessionWithoutResending() throws Exception {
+    Path f = file(4 * CHUNK);
+    // the first run gets one chunk through, then fails for good
+    ResumableUploader first = uploader(0);
+    server.removeContext("/upload");
+    AtomicInteger puts = new AtomicInteger();
+    server.createContext("/upload", ex -> {
+      if (ex.getRequestMethod().equals("PUT") && puts.incrementAndGet() > 1) {
+        ex.getRequestBody().readAllBytes();
+        ex.sendResponseHeaders(500, -1);
+        ex.close();
+      } else {
+        handle(ex);
+      }
+    });
+    assertThrows(IOException.class, () -> first.upload(start, null, f, "video/mp4", "{}"));
+    assertEquals(CHUNK, received.size());
+
+    server.removeContext("/upload");
+    server.createContext("/upload", this::handle);
+    assertEquals("F1", uploader(0).upload(start, null, f, "video/mp4", "{}").path("id").asText());
+    assertEquals(1, sessionsOpened.get(), "the stored session is reused");
+    assertArrayEquals(Files.readAllBytes(f), received.toByteArray());
+    assertEquals(4L * CHUNK, bytesSent.get(), "the chunk that got through is not sent again");
+  }
+}
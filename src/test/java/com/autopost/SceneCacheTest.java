@@ -0,0 +1,44 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SceneCacheTest {
+
+  @TempDir Path dir;
+
+  @Test
+  void roundTripsCutsAtMillisecondPrecision() {
+    SceneCache cache = new SceneCache(dir, 1 << 20);
+    String key = Config.hash("file-1", "abc123", 0.4);
+    cache.put(key, List.of(0.0, 12.3456, 61.5, 3600.25));
+    assertEquals(List.of(0.0, 12.346, 61.5, 3600.25), cache.get(key));
+  }
+
+  @Test
+  void keyDependsOnChecksumAndThreshold() {
+    SceneCache cache = new SceneCache(dir, 1 << 20);
+    cache.put(Config.hash("file-1", "abc123", 0.4), List.of(1.0));
+    assertNull(cache.get(Config.hash("file-1", "abc123", 0.3)));
+    assertNull(cache.get(Config.hash("file-1", "def456", 0.4)));
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedEntriesOverBudget() throws Exception {
+    SceneCache cache = new SceneCache(dir, 40);
+    cache.put("old", List.of(1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0));
+    Files.setLastModifiedTime(dir.resolve("old.cuts"), FileTime.fromMillis(0));
+    cache.put("new", List.of(1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0));
+    cache.put("newer", List.of(1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0));
+    assertNull(cache.get("old"));
+    assertTrue(cache.get("newer") != null);
+  }
+}
@@ -0,0 +1,91 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Compares the ffprobe lavfi scene pass with the tiny-frame FastSceneDetector on a generated clip with known cuts.
+ * Skips when ffmpeg/ffprobe aren't on the PATH (as in CI); the timing comparison runs only with SCENE_BENCHMARK=1.
+ */
+public class SceneDetectionBenchmarkTest {
+
+  private static final String[] SOURCES = {
+      "testsrc", "color=c=red", "smptebars", "color=c=blue", "mandelbrot", "color=c=green", "rgbtestsrc", "color=c=white"};
+  private static final int SEGMENT_SEC = 4;
+
+  @TempDir Path dir;
+
+  private static boolean available(String tool) {
+    try {
+      return new ProcessBuilder(tool, "-version").redirectErrorStream(true).start().waitFor() == 0;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  private Path generate() throws Exception {
+    Path out = dir.resolve("cuts.mp4");
+    List<String> cmd = new ArrayList<>(List.of("ffmpeg", "-v", "error", "-y"));
+    StringBuilder concat = new StringBuilder();
+    for (int i = 0; i < SOURCES.length; i++) {
+      cmd.addAll(List.of("-f", "lavfi", "-i", SOURCES[i] + ":size=1280x720:rate=30:duration=" + SEGMENT_SEC));
+      concat.append('[').append(i).append(":v]");
+    }
+    concat.append("concat=n=").append(SOURCES.length).append(":v=1:a=0,format=yuv420p");
+    cmd.addAll(List.of("-filter_complex", concat.toString(), "-c:v", "libx264", "-preset", "ultrafast", out.toString()));
+    assertEquals(0, new ProcessBuilder(cmd).inheritIO().start().waitFor());
+    return out;
+  }
+
+  private static void assertFindsTheGeneratedCuts(String which, List<Double> cuts) {
+    assertEquals(SOURCES.length - 1, cuts.size(), which + ": one cut per segment boundary, got " + cuts);
+    for (int i = 0; i < cuts.size(); i++) {
+      double expected = (i + 1) * SEGMENT_SEC;
+      assertTrue(Math.abs(cuts.get(i) - expected) <= 0.1 + 1e-9, which + " cut " + cuts.get(i) + " vs " + expected);
+    }
+  }
+
+  @Test
+  void fastDetectorFindsTheSameCutsAsLavfi() throws Exception {
+    Assumptions.assumeTrue(available("ffmpeg") && available("ffprobe"), "ffmpeg/ffprobe not installed");
+    Path video = generate();
+
+    assertFindsTheGeneratedCuts("lavfi", new VideoProcessor().lavfiScenes(video, 0));
+    assertFindsTheGeneratedCuts("fast", new FastSceneDetector("ffmpeg", 0.4, 10, 0).detect(video));
+  }
+
+  // Median wall time of a few runs after a warm-up run (page cache, JIT)
+  private static double medianSec(Callable<List<Double>> detect) throws Exception {
+    detect.call();
+    double[] runs = new double[5];
+    for (int i = 0; i < runs.length; i++) {
+      long t0 = System.nanoTime();
+      detect.call();
+      runs[i] = (System.nanoTime() - t0) / 1e9;
+    }
+    Arrays.sort(runs);
+    return runs[runs.length / 2];
+  }
+
+  @Test
+  void reportsTheDurationOfBothPasses() throws Exception {
+    Assumptions.assumeTrue("1".equals(System.getenv("SCENE_BENCHMARK")), "set SCENE_BENCHMARK=1 to time the passes");
+    Assumptions.assumeTrue(available("ffmpeg") && available("ffprobe"), "ffmpeg/ffprobe not installed");
+    Path video = generate();
+
+    double lavfi = medianSec(() -> new VideoProcessor().lavfiScenes(video, 0));
+    double fast = medianSec(() -> new FastSceneDetector("ffmpeg", 0.4, 10, 0).detect(video));
+    System.out.println(String.format(Locale.ROOT, "Scene detection on %ds of 720p30: lavfi %.2fs, fast %.2fs (%.1fx)",
+        SOURCES.length * SEGMENT_SEC, lavfi, fast, lavfi / fast));
+  }
+}
@@ -0,0 +1,39 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ScenePtsParserTest {
+
+  private static InputStream lines(String... lines) {
+    return new ByteArrayInputStream((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void readsLegacyAndNewFieldNames() throws Exception {
+    InputStream in = lines(
+        "frame|media_type=video|stream_index=0|key_frame=0|pkt_pts=1200|pkt_pts_time=12.500000|pkt_dts_time=12.500000",
+        "frame|media_type=video|stream_index=0|key_frame=0|pts=4100|pts_time=41.000000|pkt_dts_time=41.000000",
+        "[lavfi @ 0x55] some warning on stderr",
+        "frame|pts_time=N/A",
+        "frame|pts_time=63.25");
+    assertEquals(List.of(12.5, 41.0, 63.25), ScenePtsParser.parse(in, 0));
+  }
+
+  @Test
+  void takesOnlyTheFirstTimestampPerLine() throws Exception {
+    InputStream in = lines("frame|pts_time=1.5|pkt_pts_time=1.5", "frame|pkt_pts_time=2.5|pts_time=2.5");
+    assertEquals(List.of(1.5, 2.5), ScenePtsParser.parse(in, 0));
+  }
+
+  @Test
+  void stopsOnceLimitIsReached() throws Exception {
+    InputStream in = lines("pts_time=1", "pts_time=2", "pts_time=3", "pts_time=4", "pts_time=5");
+    assertEquals(List.of(1.0, 2.0, 3.0), ScenePtsParser.parse(in, 3));
+  }
+}
@@ -0,0 +1,68 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class SceneShardsTest {
+
+  // Reports the cuts of {@code truth} inside each range, later ranges a little off (frame quantization)
+  private static SceneShards.RangeDetector ranges(List<Double> truth, List<double[]> calls) {
+    return (from, span, started) -> {
+      synchronized (calls) {
+        calls.add(new double[] {from, span});
+      }
+      List<Double> out = new ArrayList<>();
+      for (double c : truth) if (c >= from && c < from + span) out.add(from > 0 ? c + 0.04 : c);
+      return out;
+    };
+  }
+
+  @Test
+  void rangesOverlapTheirPredecessorAndCoverTheSource() throws Exception {
+    List<double[]> calls = new ArrayList<>();
+    SceneShards.detect(ranges(List.of(), calls), 100, 4, 2, 0);
+    calls.sort((a, b) -> Double.compare(a[0], b[0]));
+    assertEquals(4, calls.size());
+    assertEquals(0, calls.get(0)[0], 1e-9);
+    assertEquals(25, calls.get(0)[1], 1e-9);
+    for (int i = 1; i < 4; i++) {
+      assertEquals(i * 25 - 2, calls.get(i)[0], 1e-9);
+      assertEquals(27, calls.get(i)[1], 1e-9);
+    }
+  }
+
+  @Test
+  void aCutSeenByTwoRangesIsKeptOnce() throws Exception {
+    // 24.0 is inside the overlap of the first boundary (25), so both the first and second range report it
+    List<Double> cuts = SceneShards.detect(ranges(List.of(10.0, 24.0, 60.0), new ArrayList<>()), 100, 4, 2, 0);
+    assertEquals(3, cuts.size(), String.valueOf(cuts));
+    assertEquals(24.0, cuts.get(1), 1e-9);
+  }
+
+  @Test
+  void quickCutsAwayFromBoundariesAreKept() {
+    List<Double> cuts = SceneShards.merge(List.of(10.0, 10.2, 10.4, 24.9, 25.1), List.of(25.0), 2);
+    assertEquals(List.of(10.0, 10.2, 10.4, 24.9), cuts);
+  }
+
+  @Test
+  void stopsWaitingForLaterRangesOnceItHasTheLimit() throws Exception {
+    CountDownLatch never = new CountDownLatch(1);
+    SceneShards.RangeDetector d = (from, span, started) -> {
+      if (from > 50) never.await(30, TimeUnit.SECONDS); // the last ranges would take long
+      List<Double> out = new ArrayList<>();
+      for (double c = from + 1; c < from + span; c += 5) out.add(c);
+      return out;
+    };
+    long t0 = System.currentTimeMillis();
+    List<Double> cuts = SceneShards.detect(d, 100, 4, 0, 3);
+    assertEquals(List.of(1.0, 6.0, 11.0), cuts);
+    assertTrue(System.currentTimeMillis() - t0 < 10_000, "did not wait for the later ranges");
+  }
+}
@@ -0,0 +1,129 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SourceCacheTest {
+
+  @TempDir Path dir;
+
+  private Path download(SourceCache cache, String id, String content) throws IOException {
+    return Files.writeString(cache.reserve(id), content);
+  }
+
+  // The entry's metadata mtime is its last use
+  private static void used(Path cacheDir, String id, String md5, long millis) throws IOException {
+    Files.setLastModifiedTime(cacheDir.resolve(Config.hash(id, md5) + ".json"), FileTime.fromMillis(millis));
+  }
+
+  @Test
+  void aDownloadIsServedFromTheCacheAfterwards() throws Exception {
+    SourceCache cache = new SourceCache(dir, 1 << 20);
+    String md5 = RangedDownloader.md5(Files.writeString(dir.resolve("x"), "video-a"));
+    assertNull(cache.get("A", md5));
+    try (SourceCache.Lease l = cache.put("A", md5, download(cache, "A", "video-a"))) {
+      assertEquals("video-a", Files.readString(l.path()));
+    }
+    try (SourceCache.Lease again = new SourceCache(dir, 1 << 20).get("A", md5)) {
+      assertNotNull(again);
+      assertEquals("video-a", Files.readString(again.path()));
+    }
+    // another checksum is another entry
+    assertNull(cache.get("A", "0123456789abcdef0123456789abcdef"));
+  }
+
+  @Test
+  void rejectsADownloadThatDoesNotMatchItsChecksum() throws Exception {
+    SourceCache cache = new SourceCache(dir, 1 << 20);
+    Path part = download(cache, "A", "truncated");
+    assertThrows(IOException.class, () -> cache.put("A", "0123456789abcdef0123456789abcdef", part));
+    assertFalse(Files.exists(part));
+  }
+
+  @Test
+  void dropsAnEntryWhoseContentChanged() throws Exception {
+    SourceCache cache = new SourceCache(dir, 1 << 20);
+    String md5 = RangedDownloader.md5(Files.writeString(dir.resolve("x"), "video-a"));
+    Path cached;
+    try (SourceCache.Lease l = cache.put("A", md5, download(cache, "A", "video-a"))) {
+      cached = l.path();
+    }
+    Files.writeString(cached, "video-b");
+    assertNull(cache.get("A", md5));
+    assertFalse(Files.exists(cached));
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedButNeverPinnedEntries() throws Exception {
+    SourceCache cache = new SourceCache(dir.resolve("cache"), 20);
+    String a = RangedDownloader.md5(Files.writeString(dir.resolve("a"), "aaaaaaaaaa"));
+    String b = RangedDownloader.md5(Files.writeString(dir.resolve("b"), "bbbbbbbbbb"));
+    String c = RangedDownloader.md5(Files.writeString(dir.resolve("c"), "cccccccccc"));
+    SourceCache.Lease pinned = cache.put("A", a, download(cache, "A", "aaaaaaaaaa"));
+    cache.put("B", b, download(cache, "B", "bbbbbbbbbb")).close();
+    used(dir.resolve("cache"), "A", a, 0);
+    used(dir.resolve("cache"), "B", b, 1000);
+    cache.put("C", c, download(cache, "C", "cccccccccc")).close();
+
+    assertTrue(Files.exists(pinned.path()), "A is in use, so B goes instead");
+    assertNull(cache.get("B", b));
+    pinned.close();
+    try (SourceCache.Lease l = cache.get("C", c)) {
+      assertNotNull(l);
+    }
+  }
+
+  @Test
+  void theKeyframeSidecarCountsTowardsTheBudgetAndGoesWithItsEntry() throws Exception {
+    SourceCache cache = new SourceCache(dir.resolve("cache"), 25);
+    String a = RangedDownloader.md5(Files.writeString(dir.resolve("a"), "aaaaaaaaaa"));
+    String b = RangedDownloader.md5(Files.writeString(dir.resolve("b"), "bbbbbbbbbb"));
+    Path kfi;
+    try (SourceCache.Lease l = cache.put("A", a, download(cache, "A", "aaaaaaaaaa"))) {
+      kfi = Files.writeString(l.path().resolveSibling(l.path().getFileName() + ".kfi"), "0123456789");
+    }
+    used(dir.resolve("cache"), "A", a, 0);
+    // 10 + 10 for A's sidecar + 10 is over 25, so A goes
+    cache.put("B", b, download(cache, "B", "bbbbbbbbbb")).close();
+
+    assertNull(cache.get("A", a));
+    assertFalse(Files.exists(kfi));
+    try (SourceCache.Lease l = cache.get("B", b)) {
+      assertNotNull(l);
+    }
+  }
+
+  @Test
+  void aVerifiedDownloadIsNotHashedAgain() throws Exception {
+    SourceCache cache = new SourceCache(dir, 1 << 20);
+    // the checksum does not match, but a verified download is taken as checked already
+    String md5 = "0123456789abcdef0123456789abcdef";
+    try (SourceCache.Lease l = cache.put("A", md5, download(cache, "A", "video-a"), true)) {
+      assertEquals("video-a", Files.readString(l.path()));
+    }
+    try (SourceCache.Lease again = cache.get("A", md5)) {
+      assertNotNull(again);
+    }
+  }
+
+  @Test
+  void anUncacheableSourceIsDeletedWhenReleased() throws Exception {
+    SourceCache cache = new SourceCache(dir, 1 << 20);
+    Path part = download(cache, "A", "video");
+    SourceCache.Lease l = cache.put("A", null, part);
+    assertEquals(part, l.path());
+    l.close();
+    assertFalse(Files.exists(part));
+  }
+}
@@ -0,0 +1,63 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+public class StagePipelineTest {
+
+  @Test
+  void everyItemPassesEveryStageInOrder() throws Exception {
+    List<String> log = Collections.synchronizedList(new ArrayList<>());
+    new StagePipeline<Integer>(2, (i, stage, e) -> log.add("failed " + i))
+        .stage("a", 1, i -> log.add("a" + i))
+        .stage("b", 1, i -> log.add("b" + i))
+        .run(List.of(1, 2, 3).iterator());
+    assertEquals(6, log.size());
+    for (int i = 1; i <= 3; i++) assertTrue(log.indexOf("a" + i) < log.indexOf("b" + i));
+    assertTrue(log.indexOf("b1") < log.indexOf("b2") && log.indexOf("b2") < log.indexOf("b3"));
+  }
+
+  @Test
+  void stagesWorkOnDifferentItemsAtTheSameTime() throws Exception {
+    // "encode" of item 1 only finishes once "download" of item 2 has started
+    CountDownLatch secondDownload = new CountDownLatch(1);
+    AtomicInteger overlapped = new AtomicInteger();
+    new StagePipeline<Integer>(1, (i, stage, e) -> { throw new AssertionError(e); })
+        .stage("download", 1, i -> { if (i == 2) secondDownload.countDown(); })
+        .stage("encode", 1, i -> { if (i == 1 && secondDownload.await(5, TimeUnit.SECONDS)) overlapped.incrementAndGet(); })
+        .run(List.of(1, 2).iterator());
+    assertEquals(1, overlapped.get());
+  }
+
+  @Test
+  void failedItemsStopWhileOthersContinue() throws Exception {
+    List<String> failures = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger uploaded = new AtomicInteger();
+    new StagePipeline<Integer>(2, (i, stage, e) -> failures.add(i + "@" + stage + ":" + e.getMessage()))
+        .stage("encode", 3, i -> { if (i % 5 == 0) throw new IllegalStateException("bad source"); })
+        .stage("upload", 2, i -> uploaded.incrementAndGet())
+        .run(IntStream.rangeClosed(1, 20).boxed().iterator());
+    assertEquals(16, uploaded.get());
+    assertEquals(4, failures.size());
+    assertTrue(failures.contains("5@encode:bad source"));
+  }
+
+  @Test
+  void aThrowingFailureHandlerDoesNotStallThePipeline() throws Exception {
+    AtomicInteger uploaded = new AtomicInteger();
+    new StagePipeline<Integer>(1, (i, stage, e) -> { throw new IllegalStateException("cleanup failed"); })
+        .stage("encode", 1, i -> { if (i % 2 == 0) throw new AssertionError("not an Exception"); })
+        .stage("upload", 1, i -> uploaded.incrementAndGet())
+        .run(IntStream.rangeClosed(1, 10).boxed().iterator());
+    assertEquals(5, uploaded.get());
+  }
+}
@@ -0,0 +1,105 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StagedMediaTest {
+
+  @TempDir Path dir;
+
+  private StagedMedia staged() {
+    return new StagedMedia(dir.resolve("x_media.json"), Duration.ofHours(24), Duration.ofHours(1));
+  }
+
+  @Test
+  void reusesAStagedIdAcrossRestarts() throws Exception {
+    Path video = Files.writeString(dir.resolve("teaser.mp4"), "video");
+    AtomicLong uploads = new AtomicLong();
+    StagedMedia.Uploader<RuntimeException> up = m -> 100 + uploads.incrementAndGet();
+    Instant slot = Instant.now().plus(Duration.ofHours(6));
+    assertEquals(101, staged().mediaIdFor(video, slot, up));
+    assertTrue(staged().freshUntil(video, slot));
+    assertEquals(101, staged().mediaIdFor(video, slot, up));
+    assertEquals(1, uploads.get());
+  }
+
+  @Test
+  void uploadsAgainWhenTheIdWouldExpireFirst() throws Exception {
+    Path video = Files.writeString(dir.resolve("teaser.mp4"), "video");
+    AtomicLong uploads = new AtomicLong();
+    StagedMedia s = staged();
+    s.mediaIdFor(video, Instant.now(), m -> uploads.incrementAndGet());
+    Instant late = Instant.now().plus(Duration.ofHours(23).plusMinutes(30));
+    assertFalse(s.freshUntil(video, late), "within the refresh margin of expiry");
+    assertEquals(2, s.mediaIdFor(video, late, m -> uploads.incrementAndGet()));
+  }
+
+  @Test
+  void aChangedFileOrAUsedIdIsNotReused() throws Exception {
+    Path video = Files.writeString(dir.resolve("teaser.mp4"), "video");
+    StagedMedia s = staged();
+    Instant soon = Instant.now().plusSeconds(60);
+    s.mediaIdFor(video, soon, m -> 1L);
+    Files.writeString(video, "re-rendered");
+    assertFalse(s.freshUntil(video, soon));
+    s.mediaIdFor(video, soon, m -> 2L);
+    s.forget(video);
+    assertFalse(s.freshUntil(video, soon));
+  }
+
+  @Test
+  void twoInstancesOnTheSameFileKeepEachOthersIds() throws Exception {
+    Path a = Files.writeString(dir.resolve("a.mp4"), "video-a"), b = Files.writeString(dir.resolve("b.mp4"), "video-b");
+    StagedMedia runner = staged(), server = staged();
+    Instant soon = Instant.now().plusSeconds(60);
+    runner.mediaIdFor(a, soon, m -> 1L);
+    server.mediaIdFor(b, soon, m -> 2L);
+    assertTrue(staged().freshUntil(a, soon), "the second save kept the first instance's entry");
+    assertTrue(staged().freshUntil(b, soon));
+    runner.forget(b);
+    assertTrue(staged().freshUntil(a, soon));
+    assertFalse(staged().freshUntil(b, soon));
+  }
+
+  @Test
+  void concurrentCallersShareOneUploadThatDoesNotBlockOthers() throws Exception {
+    Path video = Files.writeString(dir.resolve("teaser.mp4"), "video"), other = Files.writeString(dir.resolve("other.mp4"), "other");
+    CountDownLatch uploading = new CountDownLatch(1), release = new CountDownLatch(1);
+    AtomicLong uploads = new AtomicLong();
+    StagedMedia.Uploader<InterruptedException> slow = m -> {
+      uploads.incrementAndGet();
+      uploading.countDown();
+      release.await(10, TimeUnit.SECONDS);
+      return 7L;
+    };
+    Instant soon = Instant.now().plusSeconds(60);
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<Long> first = pool.submit(() -> staged().mediaIdFor(video, soon, slow));
+      assertTrue(uploading.await(10, TimeUnit.SECONDS));
+      Future<Long> second = pool.submit(() -> staged().mediaIdFor(video, soon, slow));
+      // the lock is free while the upload runs
+      assertFalse(staged().freshUntil(other, soon));
+      release.countDown();
+      assertEquals(7L, (long) first.get(10, TimeUnit.SECONDS));
+      assertEquals(7L, (long) second.get(10, TimeUnit.SECONDS));
+      assertEquals(1, uploads.get());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
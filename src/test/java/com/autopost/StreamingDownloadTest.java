@@ -0,0 +1,125 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StreamingDownloadTest {
+
+  private static final int SIZE = 300_000, HALF = SIZE / 2;
+
+  @TempDir Path dir;
+  private HttpServer server;
+  private byte[] data;
+  // The server sends the first half, then waits for this before sending the rest
+  private final CountDownLatch rest = new CountDownLatch(1);
+
+  @BeforeEach
+  void startServer() throws IOException {
+    data = new byte[SIZE];
+    new Random(7).nextBytes(data);
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/media", ex -> {
+      ex.sendResponseHeaders(200, SIZE);
+      try (OutputStream os = ex.getResponseBody()) {
+        os.write(data, 0, HALF);
+        os.flush();
+        rest.await(10, TimeUnit.SECONDS);
+        os.write(data, HALF, SIZE - HALF);
+      } catch (InterruptedException | IOException ignored) {
+        // client went away
+      }
+    });
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    rest.countDown();
+    server.stop(0);
+  }
+
+  private InputStream media() throws IOException {
+    return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/media").toURL().openStream();
+  }
+
+  @Test
+  void theTailReadsBytesBeforeTheDownloadFinishes() throws Exception {
+    Path dest = dir.resolve("raw.mp4");
+    try (StreamingDownload dl = StreamingDownload.start(this::media, dest); InputStream tail = dl.tail()) {
+      byte[] head = tail.readNBytes(HALF);
+      assertArrayEquals(Arrays.copyOf(data, HALF), head);
+      assertTrue(!dl.isDone(), "the first half was read while the rest was still on its way");
+
+      rest.countDown();
+      byte[] more = tail.readAllBytes();
+      assertEquals(SIZE - HALF, more.length);
+      assertEquals(dest, dl.await());
+    }
+    assertArrayEquals(data, Files.readAllBytes(dest));
+  }
+
+  @Test
+  void aFailedReadFailsTheTailAndAwait() throws Exception {
+    // Fails once the first half has been read, like a reset connection
+    Callable<InputStream> source = () -> new SequenceInputStream(new ByteArrayInputStream(data, 0, HALF), new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("connection reset");
+      }
+    });
+    try (StreamingDownload dl = StreamingDownload.start(source, dir.resolve("raw.mp4")); InputStream tail = dl.tail()) {
+      assertEquals(HALF, tail.readNBytes(HALF).length);
+      assertThrows(IOException.class, tail::readAllBytes);
+      assertThrows(IOException.class, dl::await);
+    }
+  }
+
+  @Test
+  void theTailFollowsOnlyTheCompletePrefixOfAFill() throws Exception {
+    Path dest = dir.resolve("ranged.mp4");
+    CountDownLatch secondHalfWritten = new CountDownLatch(1), firstHalf = new CountDownLatch(1);
+    // Like a ranged download: the second half lands first and completes nothing at the start of the file
+    StreamingDownload.Fill fill = prefix -> {
+      try (FileChannel ch = FileChannel.open(dest, StandardOpenOption.WRITE)) {
+        ch.write(ByteBuffer.wrap(data, HALF, SIZE - HALF), HALF);
+        prefix.accept(0);
+        secondHalfWritten.countDown();
+        firstHalf.await(10, TimeUnit.SECONDS);
+        ch.write(ByteBuffer.wrap(data, 0, HALF), 0);
+        prefix.accept(SIZE);
+      }
+    };
+    try (StreamingDownload dl = StreamingDownload.fill(dest, fill); InputStream tail = dl.tail()) {
+      assertTrue(secondHalfWritten.await(10, TimeUnit.SECONDS));
+      assertEquals(0L, dl.written(), "nothing readable until the start of the file is there");
+      firstHalf.countDown();
+      assertArrayEquals(data, tail.readAllBytes());
+      dl.await();
+    }
+  }
+}
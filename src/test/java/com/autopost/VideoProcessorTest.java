@@ -0,0 +1,77 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.autopost.VideoProcessor.Segment;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class VideoProcessorTest {
+
+  private static final Path RAW = Path.of("raw.mp4");
+  private static final String PAD_1080 = "scale=1920:1080:force_original_aspect_ratio=decrease,pad=1920:1080:(ow-iw)/2:(oh-ih)/2,fps=60";
+
+  private static List<String> after(List<String> cmd, String flag) {
+    return after(cmd, flag, 1);
+  }
+
+  // The argument offset places after each occurrence of flag
+  private static List<String> after(List<String> cmd, String flag, int offset) {
+    List<String> values = new ArrayList<>();
+    for (int i = 0; i + offset < cmd.size(); i++) {
+      if (cmd.get(i).equals(flag)) {
+        values.add(cmd.get(i + offset));
+      }
+    }
+    return values;
+  }
+
+  @Test
+  void oneSegmentWithAudioIsOneTrimPerStream() {
+    List<String> cmd = VideoProcessor.finalsCommand("ffmpeg", 0, RAW, List.of(new Segment("clip", 1, 12.3456785, 20)),
+        List.of(Rendition.LANDSCAPE_1080), List.of(Path.of("clip.mp4")), true, "fast");
+
+    String graph = "[0:v]split=1[s0];[0:a]asplit=1[t0]"
+        + ";[s0]trim=start=0.000000:duration=20.000000,setpts=PTS-STARTPTS[u0_0];[u0_0]" + PAD_1080 + "[v0_0]"
+        + ";[t0]atrim=start=0.000000:duration=20.000000,asetpts=PTS-STARTPTS[a0_0]";
+    assertEquals(List.of("ffmpeg", "-y", "-ss", "12.345679", "-t", "20.000000", "-i", "raw.mp4", "-filter_complex", graph,
+        "-map", "[v0_0]", "-map", "[a0_0]", "-c:a", "aac", "-b:a", "256k", "-c:v", "libx264", "-preset", "fast", "-crf", "23", "clip.mp4"), cmd);
+  }
+
+  @Test
+  void segmentsAreTrimmedRelativeToTheEarliestStartAndSplitPerRendition() {
+    List<Segment> segs = List.of(new Segment("clip", 1, 10.5, 20), new Segment("teaser", 1, 4, 180));
+    List<Rendition> ladder = Rendition.parse("1080p60,vertical");
+    List<Path> outs = List.of(Path.of("clip.mp4"), Path.of("teaser.mp4"), Path.of("clip_vertical.mp4"), Path.of("teaser_vertical.mp4"));
+    List<String> cmd = VideoProcessor.finalsCommand("ffmpeg", 8, RAW, segs, ladder, outs, false, "veryfast");
+    String graph = after(cmd, "-filter_complex").get(0);
+
+    // The input is seeked once, to the first frame any segment needs, and read up to the last one
+    assertEquals(List.of("4.000000"), after(cmd, "-ss"));
+    assertEquals(List.of("180.000000"), after(cmd, "-t"));
+    assertTrue(graph.startsWith("[0:v]split=2[s0][s1];"), graph);
+    assertTrue(graph.contains("[s0]trim=start=6.500000:duration=20.000000,setpts=PTS-STARTPTS,split=2[u0_0][u0_1]"), graph);
+    assertTrue(graph.contains("[s1]trim=start=0.000000:duration=180.000000,setpts=PTS-STARTPTS,split=2[u1_0][u1_1]"), graph);
+    assertTrue(graph.contains("[u1_0]" + PAD_1080 + "[v1_0]"), graph);
+    assertTrue(graph.contains("[u1_1]scale=1080:1920:force_original_aspect_ratio=increase,crop=1080:1920,fps=60[v1_1]"), graph);
+    assertFalse(graph.contains("[0:a]") || cmd.contains("-c:a"), "a silent source gets no audio chains");
+
+    // Outputs follow the ladder, segments in order within each rendition; the threads are shared between the four encoders
+    assertEquals(List.of("[v0_0]", "[v1_0]", "[v0_1]", "[v1_1]"), after(cmd, "-map"));
+    assertEquals(List.of("clip.mp4", "teaser.mp4", "clip_vertical.mp4", "teaser_vertical.mp4"), after(cmd, "-x264-params", 2));
+    assertEquals(List.of("8", "2", "2", "2", "2"), after(cmd, "-threads"));
+    assertEquals(List.of("threads=2", "threads=2", "threads=2", "threads=2"), after(cmd, "-x264-params"));
+  }
+
+  @Test
+  void aTranscodedCutSeeksAtMicrosecondPrecision() {
+    assertEquals(List.of("ffmpeg", "-threads", "4", "-ss", "1.000001", "-i", "raw.mp4", "-t", "20.0",
+            "-c:v", "libx264", "-preset", "fast", "-crf", "23", "-threads", "4", "-x264-params", "threads=4",
+            "-c:a", "aac", "-b:a", "192k", "cut.mp4"),
+        VideoProcessor.cutCommand("ffmpeg", 4, RAW, 1.0000012, 20, "fast", Path.of("cut.mp4")));
+  }
+}
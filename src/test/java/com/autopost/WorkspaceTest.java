@@ -0,0 +1,84 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WorkspaceTest {
+
+  @TempDir Path dir;
+
+  private Workspace.Budget budget(String root, long cap, long minFree, long waitMs) {
+    return new Workspace.Budget(dir.resolve(root), null, cap, minFree, waitMs);
+  }
+
+  @Test
+  void jobsGetSeparateDirectoriesThatCloseRemoves() throws Exception {
+    Workspace.Budget b = budget("jobs", 0, 0, 0);
+    Path a;
+    try (Workspace one = Workspace.open("file/1", 10, b); Workspace two = Workspace.open("file/1", 10, b)) {
+      assertNotEquals(one.dir(), two.dir());
+      assertTrue(one.scratch().startsWith(one.dir()));
+      Files.writeString(one.scratch().resolve("clip_1.mp4"), "x");
+      Files.writeString(two.scratch().resolve("clip_1.mp4"), "y");
+      a = one.dir();
+    }
+    assertFalse(Files.exists(a));
+  }
+
+  @Test
+  void resumableWorkspacesKeepOutputsUntilDiscarded() throws Exception {
+    Workspace.Budget b = budget("resume", 0, 0, 0);
+    Workspace first = Workspace.open("file/1", 10, b, true);
+    Files.writeString(first.dir().resolve("out.mp4"), "x");
+    Files.writeString(first.scratch().resolve("cut.mp4"), "y");
+    first.close();
+    try (Workspace again = Workspace.open("file/1", 10, b, true)) {
+      assertTrue(Files.exists(again.dir().resolve("out.mp4")));
+      assertFalse(Files.exists(again.scratch().resolve("cut.mp4")), "intermediates do not survive");
+      again.discard();
+      assertFalse(Files.exists(again.dir()));
+    }
+  }
+
+  @Test
+  void refusesAJobTheDiskCannotHold() {
+    assertThrows(IOException.class, () -> Workspace.open("huge", 1L << 20, budget("full", 0, Long.MAX_VALUE / 4, 0)));
+  }
+
+  @Test
+  void waitsForBudgetToBeReleased() throws Exception {
+    Workspace.Budget b = budget("capped", 100, 0, 10_000);
+    Workspace first = Workspace.open("a", 80, b);
+    CompletableFuture<Workspace> second = CompletableFuture.supplyAsync(() -> {
+      try {
+        return Workspace.open("b", 80, b);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    Thread.sleep(300);
+    assertFalse(second.isDone(), "over the cap while the first job runs");
+    first.close();
+    second.get(5, TimeUnit.SECONDS).close();
+  }
+
+  @Test
+  void removesWorkspacesOfDeadProcesses() throws Exception {
+    Path stale = Files.createDirectories(dir.resolve("swept").resolve("old-1-1"));
+    Files.writeString(stale.resolve(".owner"), String.valueOf(Long.MAX_VALUE));
+    Path foreign = Files.createDirectories(dir.resolve("swept").resolve("not-ours"));
+    Workspace.open("new", 10, budget("swept", 0, 0, 0)).close();
+    assertFalse(Files.exists(stale));
+    assertTrue(Files.exists(foreign), "directories without an owner file are left alone");
+  }
+}
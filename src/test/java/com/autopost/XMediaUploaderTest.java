@@ -0,0 +1,130 @@
+package com.autopost;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class XMediaUploaderTest {
+
+  @TempDir Path dir;
+
+  private HttpServer server;
+  private final Map<Integer, byte[]> segments = new ConcurrentHashMap<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+  private final AtomicInteger statusPolls = new AtomicInteger();
+  private final AtomicInteger failNextAppend = new AtomicInteger();
+  private volatile String processingState = "succeeded";
+
+  private XMediaUploader uploader(int segmentBytes) throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(Executors.newFixedThreadPool(8));
+    server.createContext("/1.1/media/upload.json", this::handle);
+    server.start();
+    URI endpoint = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/1.1/media/upload.json");
+    return new XMediaUploader(new XMediaUploader.Credentials("ck", "cs", "tok", "ts"), endpoint, segmentBytes, 4, 10_000);
+  }
+
+  @AfterEach
+  void stop() {
+    if (server != null) server.stop(0);
+  }
+
+  private void handle(HttpExchange ex) throws IOException {
+    String auth = ex.getRequestHeaders().getFirst("Authorization");
+    if (auth == null || !auth.startsWith("OAuth ") || !auth.contains("oauth_signature=")) {
+      reply(ex, 401, "{}");
+      return;
+    }
+    byte[] body = ex.getRequestBody().readAllBytes();
+    String type = String.valueOf(ex.getRequestHeaders().getFirst("Content-Type"));
+    if (ex.getRequestMethod().equals("GET")) {
+      statusPolls.incrementAndGet();
+      reply(ex, 200, "{\"media_id_string\":\"42\",\"processing_info\":{\"state\":\"" + processingState + "\"}}");
+    } else if (type.startsWith("multipart/form-data")) {
+      int now = inFlight.incrementAndGet();
+      maxInFlight.accumulateAndGet(now, Math::max);
+      try {
+        Thread.sleep(50);
+        if (failNextAppend.getAndDecrement() > 0) {
+          reply(ex, 503, "{}");
+          return;
+        }
+        String boundary = type.substring(type.indexOf("boundary=") + 9);
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        int idx = Integer.parseInt(field(text, "segment_index"));
+        int start = text.indexOf("\r\n\r\n", text.indexOf("name=\"media\"")) + 4;
+        int end = text.lastIndexOf("\r\n--" + boundary + "--");
+        segments.put(idx, java.util.Arrays.copyOfRange(body, start, end));
+        reply(ex, 204, "");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        inFlight.decrementAndGet();
+      }
+    } else {
+      String form = new String(body, StandardCharsets.UTF_8);
+      if (form.contains("command=INIT")) reply(ex, 202, "{\"media_id\":42,\"media_id_string\":\"42\"}");
+      else reply(ex, 201, "{\"media_id_string\":\"42\",\"processing_info\":{\"state\":\"pending\",\"check_after_secs\":0}}");
+    }
+  }
+
+  private static String field(String multipart, String name) {
+    int at = multipart.indexOf("name=\"" + name + "\"");
+    int start = multipart.indexOf("\r\n\r\n", at) + 4;
+    return multipart.substring(start, multipart.indexOf("\r\n", start));
+  }
+
+  private static void reply(HttpExchange ex, int code, String json) throws IOException {
+    byte[] b = json.getBytes(StandardCharsets.UTF_8);
+    ex.sendResponseHeaders(code, b.length == 0 ? -1 : b.length);
+    if (b.length > 0) ex.getResponseBody().write(b);
+    ex.close();
+  }
+
+  private Path video(int size) throws IOException {
+    byte[] data = new byte[size];
+    new Random(7).nextBytes(data);
+    return Files.write(dir.resolve("teaser.mp4"), data);
+  }
+
+  @Test
+  void uploadsSegmentsConcurrentlyAndWaitsForProcessing() throws Exception {
+    Path media = video(10 * (64 << 10) + 123);
+    failNextAppend.set(1);
+    assertEquals(42, uploader(64 << 10).upload(media));
+
+    assertEquals(11, segments.size());
+    ByteArrayOutputStream joined = new ByteArrayOutputStream();
+    for (int i = 0; i < segments.size(); i++) joined.write(segments.get(i));
+    assertArrayEquals(Files.readAllBytes(media), joined.toByteArray());
+    assertTrue(maxInFlight.get() > 1, "APPENDs overlap");
+    assertTrue(statusPolls.get() >= 1, "pending processing is polled");
+  }
+
+  @Test
+  void failsWhenProcessingFails() throws Exception {
+    processingState = "failed";
+    XMediaUploader up = uploader(64 << 10);
+    assertThrows(IOException.class, () -> up.upload(video(1000)));
+  }
+}